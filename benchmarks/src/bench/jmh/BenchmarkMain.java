@@ -0,0 +1,25 @@
+package bench.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs PhaseBenchmark with the GC profiler, so every phase reports its allocation rate next to its throughput.
+ * Usage: java bench.jmh.BenchmarkMain [phase regex]   (run from the project root, or pass -Dcorpus.root)
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException {
+        String corpusRoot = new File(System.getProperty("corpus.root", ".")).getAbsolutePath();
+        Options options = new OptionsBuilder()
+                .include(PhaseBenchmark.class.getSimpleName() + "\\." + (args.length > 0 ? args[0] : ".*"))
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend("-Dcorpus.root=" + corpusRoot)
+                .build();
+        new Runner(options).run();
+    }
+}
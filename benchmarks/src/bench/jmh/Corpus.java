@@ -0,0 +1,44 @@
+package bench.jmh;
+
+import VMTranslator.vmcode.VMParser;
+import VMTranslator.vmcode.VMinstruction;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One bundled program, loaded once per trial.
+ * Corpus directories are resolved against -Dcorpus.root, which defaults to the working directory.
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+    @Param({"Chess", "HACK_OS", "MY_OS"})
+    public String name;
+
+    public File dir;
+    public final List<String> modules = new ArrayList<>();
+    public final List<String> sources = new ArrayList<>();
+    public final List<List<VMinstruction>> grouped = new ArrayList<>(); //Parsed once, for the phases after grouping
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        dir = new File(System.getProperty("corpus.root", "."), name);
+        File[] vmFiles = dir.listFiles((d, n) -> n.endsWith(".vm"));
+        if (vmFiles == null || vmFiles.length == 0) {
+            throw new IllegalStateException("No .vm files found in " + dir.getAbsolutePath());
+        }
+        Arrays.sort(vmFiles);
+
+        for (File vmFile : vmFiles) {
+            String module = vmFile.getName().replace(".vm", "");
+            String source = Files.readString(vmFile.toPath());
+            modules.add(module);
+            sources.add(source);
+            grouped.add(new VMParser(source, module).parse());
+        }
+    }
+}
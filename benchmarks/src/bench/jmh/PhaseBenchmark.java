@@ -0,0 +1,126 @@
+package bench.jmh;
+
+import VMTranslator.vmcode.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of every pipeline phase on a whole corpus, one operation being one pass over all of its files.
+ * tokenize, group and decode make up translate; analyze and generateJack make up decompile.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBenchmark {
+
+    @Benchmark
+    public void tokenize(Corpus corpus, Blackhole bh) {
+        for (String source : corpus.sources) {
+            bh.consume(new VMTokenizer(source).tokenize());
+        }
+    }
+
+    @Benchmark
+    public void group(Corpus corpus, Tokens tokens, Blackhole bh) throws Exception {
+        for (int i = 0; i < corpus.sources.size(); i++) {
+            bh.consume(new VMParser(corpus.sources.get(i), corpus.modules.get(i)).group(tokens.flat.get(i)));
+        }
+    }
+
+    @Benchmark
+    public void decode(Corpus corpus, Blackhole bh) throws Exception {
+        for (int i = 0; i < corpus.grouped.size(); i++) {
+            bh.consume(decode(corpus.grouped.get(i), new TranslationContext(corpus.modules.get(i))));
+        }
+    }
+
+    @Benchmark
+    public void translate(Corpus corpus, Blackhole bh) throws Exception {
+        for (int i = 0; i < corpus.sources.size(); i++) {
+            VMParser parser = new VMParser(corpus.sources.get(i), corpus.modules.get(i));
+            bh.consume(decode(parser.parse(), parser.getContext()));
+        }
+    }
+
+    @Benchmark
+    public void analyze(Corpus corpus, Decompiler d, Blackhole bh) throws Throwable {
+        bh.consume(d.analyze(corpus.dir));
+    }
+
+    @Benchmark
+    public void generateJack(Decompiler d, Blackhole bh) throws Throwable {
+        d.generateAll(d.analyzed, bh);
+    }
+
+    @Benchmark
+    public void decompile(Corpus corpus, Decompiler d, Blackhole bh) throws Throwable {
+        d.generateAll(d.analyze(corpus.dir), bh);
+    }
+
+    private static AsmBuffer decode(List<VMinstruction> instructions, TranslationContext ctx) throws Exception {
+        AsmBuffer asm = new AsmBuffer();
+        for (VMinstruction inst : instructions) {
+            inst.decode(asm, ctx);
+        }
+        return asm;
+    }
+
+    // Grouping attaches values to the ReturnInstructions it consumes, so every invocation needs a fresh token stream.
+    // Tokenizing happens here, outside the measured region.
+    @State(Scope.Thread)
+    public static class Tokens {
+        final List<List<VMinstruction>> flat = new ArrayList<>();
+
+        @Setup(Level.Invocation)
+        public void tokenize(Corpus corpus) {
+            flat.clear();
+            for (String source : corpus.sources) {
+                flat.add(new VMTokenizer(source).tokenize());
+            }
+        }
+    }
+
+    // JackDecompiler lives in the unnamed package, which cannot be imported, so it is bound reflectively once per trial
+    @State(Scope.Benchmark)
+    public static class Decompiler {
+        private MethodHandle create, analyze, classes, translator, generate;
+        Object analyzed; //Metadata for the corpus, for measuring Jack generation alone
+
+        @Setup(Level.Trial)
+        public void bind(Corpus corpus) throws Throwable {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> decompiler = Class.forName("JackDecompiler");
+            Class<?> translatorClass = Class.forName("VMToJackTranslator");
+            create = lookup.findConstructor(decompiler, MethodType.methodType(void.class, File.class));
+            analyze = lookup.findVirtual(decompiler, "analyze", MethodType.methodType(void.class));
+            classes = lookup.findVirtual(decompiler, "getClassMetadata", MethodType.methodType(Map.class));
+            translator = lookup.findConstructor(translatorClass, MethodType.methodType(void.class, decompiler));
+            generate = lookup.findVirtual(decompiler, "generateJackClass", MethodType.methodType(String.class, Class.forName("JackDecompiler$ClassMetadata"), translatorClass));
+            analyzed = analyze(corpus.dir);
+        }
+
+        Object analyze(File dir) throws Throwable {
+            Object decompiler = create.invoke(dir);
+            analyze.invoke(decompiler);
+            return decompiler;
+        }
+
+        void generateAll(Object decompiler, Blackhole bh) throws Throwable {
+            Object jackTranslator = translator.invoke(decompiler);
+            for (Object cls : ((Map<?, ?>) classes.invoke(decompiler)).values()) {
+                bh.consume(generate.invoke(decompiler, cls, jackTranslator));
+            }
+        }
+    }
+}
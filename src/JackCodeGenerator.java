@@ -1,3 +1,4 @@
+import VMTranslator.Metrics;
 import VMTranslator.vmcode.*;
 
 import java.util.ArrayList;
@@ -12,17 +13,20 @@ public class JackCodeGenerator {
     }
 
     public List<String> generateJackCode(List<VMinstruction> parsed, JackDecompiler.FunctionMetadata fn) throws Exception {
-        this.fn = fn;
-        List<VMinstruction> cleaned = preprocess(parsed);
-        List<String> jackLines = new ArrayList<>();
-        int i = 0;
-        int indentLevel = 0;
-
-        while (i < cleaned.size()) {
-            i = generateBlock(cleaned, i, jackLines, indentLevel);
-        }
+        try (Metrics.Phase phase = Metrics.phase("jack.generate", fn.name)) {
+            this.fn = fn;
+            List<VMinstruction> cleaned = preprocess(parsed);
+            List<String> jackLines = new ArrayList<>();
+            int i = 0;
+            int indentLevel = 0;
+
+            while (i < cleaned.size()) {
+                i = generateBlock(cleaned, i, jackLines, indentLevel);
+            }
 
-        return jackLines;
+            phase.items("jack.lines", jackLines.size());
+            return jackLines;
+        }
     }
 
     // Strip compiler-generated instructions like:
@@ -265,7 +269,7 @@ public class JackCodeGenerator {
 
 
     private String generatePushPopPair(PushPopPair pair) {
-        if (pair.getPush() instanceof CallGroup cg && pair.getPop().getAddress().equals(new Address("temp", (short) 0))) {
+        if (pair.getPush() instanceof CallGroup cg && pair.getPop().getAddress() == Address.of(Segment.TEMP, (short) 0)) {
             return "do " + generateCallGroup(cg) + ";";
         }
         if (pair.getPop().getAddress().lookUpAddress().isBlank() || generatePushGroup(pair.getPush()).isBlank()) {
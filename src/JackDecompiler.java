@@ -1,162 +1,290 @@
-import VMTranslator.vmcode.VMParser;
-import VMTranslator.vmcode.VMinstruction;
+import VMTranslator.BuildCache;
+import VMTranslator.Metrics;
+import VMTranslator.vmcode.*;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class JackDecompiler {
     private final File inputDir;
+    private final BuildCache cache; //Null when every class should be regenerated
+    private final AtomicInteger reusedClasses = new AtomicInteger();
 
-    private final Map<String, ClassMetadata> classMap = new HashMap<>();
+    //Sorted so that metadata and output are produced in the same order on every run
+    private final Map<String, ClassMetadata> classMap = new TreeMap<>();
     private final Map<String, FunctionMetadata> functionMap = new HashMap<>();
-    private final Set<String> calledFunctions = new HashSet<>(Set.of("Sys.init"));
+    private final Set<String> calledFunctions = new TreeSet<>(Set.of("Sys.init"));
 
-    private static final Pattern P_STATIC = Pattern.compile("static (\\d+)");
-    private static final Pattern P_FIELD = Pattern.compile("this (\\d+)");
+    private static final Address TEMP_0 = Address.of(Segment.TEMP, (short) 0);
+    private static final Address POINTER_0 = Address.of(Segment.POINTER, (short) 0);
+    private static final Address ARGUMENT_0 = Address.of(Segment.ARGUMENT, (short) 0);
 
     public JackDecompiler(File inputDir) {
+        this(inputDir, null);
+    }
+
+    public JackDecompiler(File inputDir, BuildCache cache) {
         this.inputDir = inputDir;
+        this.cache = cache;
     }
 
     public void decompileAll() throws IOException {
+        analyze();
+        printMetadata();
+    }
+
+    //Builds the class and function metadata without printing it
+    public void analyze() throws IOException {
         File[] vmFiles = inputDir.listFiles((d, n) -> n.endsWith(".vm"));
         if (vmFiles == null || vmFiles.length == 0) {
             System.err.println("No .vm files found.");
             return;
         }
+        Arrays.sort(vmFiles);
 
-        for (File vmFile : vmFiles) parseVmFile(vmFile);
-        inferVariableTypes();  // <-- Added pass to infer types
-        printMetadata();
+        for (File vmFile : vmFiles) {
+            try (Metrics.Phase phase = Metrics.phase("decompiler.parseVmFile", vmFile.getName())) {
+                phase.items("decompiler.functions", parseVmFile(vmFile).functions.size());
+            }
+        }
+        try (Metrics.Phase phase = Metrics.phase("decompiler.inferVariableTypes", inputDir.getName())) {
+            phase.items("decompiler.typedVariables", inferVariableTypes());  // <-- Added pass to infer types
+        }
     }
 
     public void writeJackFiles(File outputDir, VMToJackTranslator translator) {
         for (ClassMetadata cls : classMap.values()) {
-            try (PrintWriter out = new PrintWriter(new File(outputDir, cls.name + ".jack"))) {
-                out.println("class " + cls.name + " {");
+            writeJackFile(cls, outputDir, translator);
+        }
+    }
 
-                for (int i = 0; i <= cls.staticMax; i++) {
-                    String varName = "static_" + i;
-                    Symbol sym = cls.classSymbols.get(varName);
-                    String type = (sym != null && sym.type != null) ? sym.type : "int";
-                    out.println("    static " + type + " " + varName + ";");
-                }
+    // Each class is written to its own file and only reads the metadata built by decompileAll,
+    // so classes can be decompiled independently; the output is identical to the serial path.
+    public void writeJackFiles(File outputDir, VMToJackTranslator translator, int workers) {
+        if (workers <= 1) {
+            writeJackFiles(outputDir, translator);
+            return;
+        }
 
-                for (int i = 0; i <= cls.fieldMax; i++) {
-                    String varName = "field_" + i;
-                    Symbol sym = cls.classSymbols.get(varName);
-                    String type = (sym != null && sym.type != null) ? sym.type : "int";
-                    out.println("    field " + type + " " + varName + ";");
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        Throwable failure = null;
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (ClassMetadata cls : classMap.values()) {
+                pending.add(pool.submit(() -> writeJackFile(cls, outputDir, translator)));
+            }
+            // writeJackFile reports its own exceptions, so only errors get here; wait for every class before
+            // rethrowing the first of them, as the serial path would have
+            for (Future<?> f : pending) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = e.getCause();
+                    else failure.addSuppressed(e.getCause());
                 }
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+        if (failure instanceof Error error) throw error;
+        if (failure instanceof RuntimeException runtime) throw runtime;
+        if (failure != null) throw new IllegalStateException(failure);
+    }
+
+    public int getReusedClassCount() {
+        return reusedClasses.get();
+    }
+
+    private void writeJackFile(ClassMetadata cls, File outputDir, VMToJackTranslator translator) {
+        try (Metrics.Phase phase = Metrics.phase("decompiler.writeJackFile", cls.name)) {
+            // The metadata pass always covers the whole program, but Jack generation only reruns for
+            // classes whose source or whose view of the rest of the program changed
+            String key = cache == null ? null : BuildCache.hash(BuildCache.fingerprint(JackDecompiler.class, VMParser.class), cls.sourceHash, programFacts(cls));
+            String jack = key == null ? null : cache.get(cls.name, key);
+            if (jack != null) {
+                reusedClasses.incrementAndGet();
+                phase.items("cache.jack.reused", 1);
+            } else {
+                jack = generateJackClass(cls, translator);
+                if (key != null) cache.put(cls.name, key, jack);
+            }
+            Files.writeString(new File(outputDir, cls.name + ".jack").toPath(), jack);
+        } catch (Exception e) {
+            System.err.println("Error writing " + cls.name + ".jack: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Everything the Jack output of cls depends on beyond its own source: the metadata inferred for its
+     * functions from the rest of the program, and what is known about every function it calls
+     */
+    private String programFacts(ClassMetadata cls) {
+        StringBuilder facts = new StringBuilder();
+        facts.append(cls.staticMax).append(' ').append(cls.fieldMax).append(' ').append(cls.classSymbols).append('\n');
+
+        Set<String> callees = new TreeSet<>();
+        for (FunctionMetadata fn : cls.functions) {
+            facts.append(fn.name).append(' ').append(calledFunctions.contains(fn.name)).append(' ').append(fn.isVoid).append(' ').append(fn.isMethod).append(' ').append(fn.isConstructor).append(' ').append(fn.numArgs).append(' ').append(fn.numLocals).append(' ').append(fn.functionSymbols).append('\n');
+            InstructionWalker.walk(fn.instructions, node -> {
+                if (node instanceof CallInstruction call) callees.add(call.getFunctionName());
+            });
+        }
+        for (String callee : callees) {
+            FunctionMetadata target = functionMap.get(callee);
+            facts.append(callee);
+            if (target != null) facts.append(' ').append(target.isVoid).append(' ').append(target.isMethod).append(' ').append(target.numArgs);
+            facts.append('\n');
+        }
+        return facts.toString();
+    }
 
-                for (FunctionMetadata fn : cls.functions) {
-                    if (!calledFunctions.contains(fn.name)) continue;
+    public String generateJackClass(ClassMetadata cls, VMToJackTranslator translator) throws Exception {
+        StringWriter text = new StringWriter();
+        try (PrintWriter out = new PrintWriter(text)) {
+            out.println("class " + cls.name + " {");
 
-                    String kind = fn.isConstructor ? "constructor" : fn.isMethod ? "method" : "function";
-                    String ret = fn.isConstructor ? cls.name : (fn.isVoid ? "void" : "int");
+            for (int i = 0; i <= cls.staticMax; i++) {
+                String varName = "static_" + i;
+                Symbol sym = cls.classSymbols.get(varName);
+                String type = (sym != null && sym.type != null) ? sym.type : "int";
+                out.println("    static " + type + " " + varName + ";");
+            }
 
-                    out.print("    " + kind + " " + ret + " " + fn.getShortName() + "(");
+            for (int i = 0; i <= cls.fieldMax; i++) {
+                String varName = "field_" + i;
+                Symbol sym = cls.classSymbols.get(varName);
+                String type = (sym != null && sym.type != null) ? sym.type : "int";
+                out.println("    field " + type + " " + varName + ";");
+            }
 
-                    int nArgs = fn.numArgs;
-                    if (fn.isMethod) {
-                        nArgs--;
-                    }
-                    for (int i = 0; i < nArgs; i++) {
-                        if (i > 0) out.print(", ");
-                        String argName = "argument_" + i;
-                        Symbol sym = fn.functionSymbols.get("argument_" + i);
-                        String type = (sym != null && sym.type != null) ? sym.type : "int";
-                        out.print(type + " " + argName);
-                    }
+            for (FunctionMetadata fn : cls.functions) {
+                if (!calledFunctions.contains(fn.name)) continue;
 
-                    out.println(") {");
+                String kind = fn.isConstructor ? "constructor" : fn.isMethod ? "method" : "function";
+                String ret = fn.isConstructor ? cls.name : (fn.isVoid ? "void" : "int");
 
-                    for (int i = 0; i < fn.numLocals; i++) {
-                        String localName = "local_" + i;
-                        Symbol sym = fn.functionSymbols.get("local_" + i);
-                        String type = (sym != null && sym.type != null) ? sym.type : "int";
-                        out.println("        var " + type + " " + localName + ";");
-                    }
+                out.print("    " + kind + " " + ret + " " + fn.getShortName() + "(");
 
-                    List<String> jackBody = translator.translate(fn.vmCode, fn);
-                    for (String jackLine : jackBody) {
-                        out.println("        " + jackLine);
-                    }
+                int nArgs = fn.numArgs;
+                if (fn.isMethod) {
+                    nArgs--;
+                }
+                for (int i = 0; i < nArgs; i++) {
+                    if (i > 0) out.print(", ");
+                    String argName = "argument_" + i;
+                    Symbol sym = fn.functionSymbols.get("argument_" + i);
+                    String type = (sym != null && sym.type != null) ? sym.type : "int";
+                    out.print(type + " " + argName);
+                }
 
-                    out.println("    }\n");
+                out.println(") {");
+
+                for (int i = 0; i < fn.numLocals; i++) {
+                    String localName = "local_" + i;
+                    Symbol sym = fn.functionSymbols.get("local_" + i);
+                    String type = (sym != null && sym.type != null) ? sym.type : "int";
+                    out.println("        var " + type + " " + localName + ";");
+                }
+
+                List<String> jackBody = translator.translate(fn);
+                for (String jackLine : jackBody) {
+                    out.println("        " + jackLine);
                 }
 
-                out.println("}");
-            } catch (Exception e) {
-                System.err.println("Error writing " + cls.name + ".jack: " + e.getMessage());
-                e.printStackTrace();
+                out.println("    }\n");
             }
+
+            out.println("}");
         }
+        return text.toString();
     }
 
 
-    private void parseVmFile(File vmFile) throws IOException {
+    private ClassMetadata parseVmFile(File vmFile) throws IOException {
         String className = vmFile.getName().replace(".vm", "");
         ClassMetadata cls = classMap.computeIfAbsent(className, ClassMetadata::new);
-        List<String> lines = Files.readAllLines(vmFile.toPath());
+        String source = Files.readString(vmFile.toPath());
+        cls.sourceHash = BuildCache.hash(source);
+
+        // Group the whole file once; the same tree feeds metadata extraction and Jack generation
+        List<VMinstruction> parsed;
+        try {
+            parsed = new VMParser(source, className).parse();
+        } catch (Exception e) {
+            System.err.println("Error parsing " + vmFile.getName() + ": " + e.getMessage());
+            return cls;
+        }
 
         FunctionMetadata currentFn = null;
 
-        for (int i = 0; i < lines.size(); i++) {
-            String line = lines.get(i).trim();
-            if (line.isEmpty() || line.startsWith("//")) continue;
+        for (int i = 0; i < parsed.size(); i++) {
+            VMinstruction instr = parsed.get(i);
 
-            if (line.startsWith("function ")) {
-                currentFn = handleFunctionDeclaration(lines, i);
+            if (instr instanceof FunctionInstruction) {
+                currentFn = handleFunctionDeclaration(parsed, i);
                 cls.functions.add(currentFn);
                 continue;
             }
 
-            if (currentFn != null) {
-                currentFn.vmCode.add(line);
-                if (line.startsWith("call ")) handleCallInstruction(lines, i);
+            boolean inFunction = currentFn != null;
+            if (inFunction) {
+                currentFn.instructions.add(instr);
+                // "call foo n" followed by "pop temp 0" discards the result
+                if (instr instanceof PushPopPair ppp && ppp.getPush() instanceof CallGroup cg && ppp.getPopAddress() == TEMP_0) {
+                    functionMap.computeIfAbsent(cg.getFunctionName(), FunctionMetadata::new).isVoid = true;
+                }
             }
 
-            updateClassFields(cls, line);
+            InstructionWalker.walk(instr, node -> {
+                if (inFunction && node instanceof CallInstruction call) handleCallInstruction(call);
+                updateClassFields(cls, node);
+            });
         }
+        return cls;
     }
 
-    private FunctionMetadata handleFunctionDeclaration(List<String> lines, int i) {
-        String[] tokens = lines.get(i).split(" ");
-        String name = tokens[1];
-        int nLocals = Integer.parseInt(tokens[2]);
+    private FunctionMetadata handleFunctionDeclaration(List<VMinstruction> parsed, int i) {
+        FunctionInstruction decl = (FunctionInstruction) parsed.get(i);
 
-        FunctionMetadata fn = functionMap.computeIfAbsent(name, FunctionMetadata::new);
-        fn.numLocals = nLocals;
-        fn.vmCode.add(lines.get(i));
+        FunctionMetadata fn = functionMap.computeIfAbsent(decl.getFuncName(), FunctionMetadata::new);
+        fn.numLocals = decl.getNumLocals();
+        fn.instructions.add(decl);
 
-        if (i + 2 < lines.size() && lines.get(i + 1).equals("push argument 0") && lines.get(i + 2).equals("pop pointer 0")) {
-            fn.isMethod = true;
-        } else if (i + 3 < lines.size() && lines.get(i + 1).startsWith("push constant") && lines.get(i + 2).equals("call Memory.alloc 1") && lines.get(i + 3).equals("pop pointer 0")) {
-            fn.isConstructor = true;
+        if (i + 1 < parsed.size() && parsed.get(i + 1) instanceof PushPopPair ppp && ppp.getPopAddress() == POINTER_0) {
+            if (ppp.getPush() instanceof PushInstruction pi && pi.getAddress() == ARGUMENT_0) {
+                fn.isMethod = true;
+            } else if (ppp.getPush() instanceof CallGroup cg && cg.getFunctionName().equals("Memory.alloc") && cg.getPushes().size() == 1 && cg.getPushes().getFirst() instanceof PushInstruction size && size.isConstant()) {
+                fn.isConstructor = true;
+            }
         }
 
         return fn;
     }
 
-    private void handleCallInstruction(List<String> lines, int i) {
-        String[] tokens = lines.get(i).split(" ");
-        String callee = tokens[1];
-        int nArgs = Integer.parseInt(tokens[2]);
+    private void handleCallInstruction(CallInstruction call) {
+        String callee = call.getFunctionName();
         FunctionMetadata calleeFn = functionMap.computeIfAbsent(callee, FunctionMetadata::new);
-        calleeFn.numArgs = Math.max(calleeFn.numArgs, nArgs);
-        calleeFn.isVoid |= (i + 1 < lines.size() && lines.get(i + 1).equals("pop temp 0"));
+        calleeFn.numArgs = Math.max(calleeFn.numArgs, call.getArgs());
         calledFunctions.add(callee);
     }
 
-    private void updateClassFields(ClassMetadata cls, String line) {
-        var mStatic = P_STATIC.matcher(line);
-        if (mStatic.find()) cls.staticMax = Math.max(cls.staticMax, Integer.parseInt(mStatic.group(1)));
+    private void updateClassFields(ClassMetadata cls, VMinstruction node) {
+        Address address = switch (node) {
+            case PushInstruction push -> push.getAddress();
+            case PopInstruction pop -> pop.getAddress();
+            default -> null;
+        };
+        if (address == null) return;
 
-        var mField = P_FIELD.matcher(line);
-        if (mField.find()) cls.fieldMax = Math.max(cls.fieldMax, Integer.parseInt(mField.group(1)));
+        if (address.getSegment() == Segment.STATIC) cls.staticMax = Math.max(cls.staticMax, address.getIndex());
+        if (address.getSegment() == Segment.THIS) cls.fieldMax = Math.max(cls.fieldMax, address.getIndex());
     }
 
     public boolean isMethodFunction(String functionName) {
@@ -164,59 +292,45 @@ public class JackDecompiler {
         return fn != null && fn.isMethod;
     }
 
-    private void inferVariableTypes() {
+    //Returns how many receivers were given a type
+    private int inferVariableTypes() {
+        int typed = 0;
         for (ClassMetadata cls : classMap.values()) {
             for (FunctionMetadata fn : cls.functions) {
-                List<String> lines = fn.vmCode;
-                for (int i = 0; i < lines.size(); i++) {
-                    String line = lines.get(i);
-                    if (!line.startsWith("call ")) continue;
-
-                    String[] parts = line.split(" ");
-                    if (parts.length < 3) continue;
-
-                    String callee = parts[1];
-                    int nArgs;
-                    try {
-                        nArgs = Integer.parseInt(parts[2]);
-                    } catch (NumberFormatException e) {
-                        continue;
-                    }
+                List<CallGroup> calls = new ArrayList<>();
+                InstructionWalker.walk(fn.instructions, node -> {
+                    if (node instanceof CallGroup cg) calls.add(cg);
+                });
+
+                for (CallGroup call : calls) {
+                    String callee = call.getFunctionName();
 
                     FunctionMetadata target = functionMap.get(callee);
                     if (target == null || !target.isMethod) continue;
 
-                    int receiverLineIndex = i - nArgs;
-                    if (receiverLineIndex < 0) continue;
+                    // The receiver is the first argument pushed for the call
+                    if (call.getPushes().isEmpty() || !(call.getPushes().getFirst() instanceof PushInstruction receiver)) continue;
 
-                    String receiverLine = lines.get(receiverLineIndex).trim();
-                    if (!receiverLine.startsWith("push ")) continue;
-
-                    String[] segParts = receiverLine.split(" ");
-                    if (segParts.length != 3) continue;
-
-                    String segment = segParts[1];
-                    int index;
-                    try {
-                        index = Integer.parseInt(segParts[2]);
-                    } catch (NumberFormatException e) {
-                        continue;
-                    }
+                    Segment segment = receiver.getAddress().getSegment();
+                    int index = receiver.getAddress().getIndex();
 
                     String type = callee.split("\\.")[0];
 
-                    if (segment.equals("static") || segment.equals("local") || segment.equals("argument")) {
-                        String varKey = segment + "_" + index;
-                        Symbol sym = fn.functionSymbols.computeIfAbsent(varKey, k -> new Symbol(segment, index));
+                    if (segment == Segment.STATIC || segment == Segment.LOCAL || segment == Segment.ARGUMENT) {
+                        String varKey = segment.vmName() + "_" + index;
+                        Symbol sym = fn.functionSymbols.computeIfAbsent(varKey, k -> new Symbol(segment.vmName(), index));
                         sym.type = type;
-                    } else if (segment.equals("this")) {
+                        typed++;
+                    } else if (segment == Segment.THIS) {
                         String varKey = "field_" + index;
                         Symbol sym = cls.classSymbols.computeIfAbsent(varKey, k -> new Symbol("field", index));
                         sym.type = type;
+                        typed++;
                     }
                 }
             }
         }
+        return typed;
     }
 
 
@@ -277,7 +391,7 @@ public class JackDecompiler {
         public boolean isConstructor = false;
         public int numArgs = 0;
         public int numLocals = 0;
-        public final List<String> vmCode = new ArrayList<>();
+        public final List<VMinstruction> instructions = new ArrayList<>(); //Grouped VM code, starting with the function declaration
 
         public final Map<String, Symbol> functionSymbols = new LinkedHashMap<>();
 
@@ -299,6 +413,7 @@ public class JackDecompiler {
         public final String name;
         public int staticMax = -1;
         public int fieldMax = -1;
+        public String sourceHash = ""; //Content hash of the .vm file, for the incremental cache
         public final List<FunctionMetadata> functions = new ArrayList<>();
 
         public final Map<String, Symbol> classSymbols = new LinkedHashMap<>();
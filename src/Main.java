@@ -1,15 +1,44 @@
 // Main.java
 
+import VMTranslator.BuildCache;
+import VMTranslator.Metrics;
+
 import java.io.*;
+import java.nio.file.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
 
 public class Main {
-    public static void main(String[] args) throws IOException {
-        if (args.length != 1) {
-            System.err.println("Usage: java Main <directory>");
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int workers = 1;
+        boolean useCache = true;
+        boolean watch = false;
+        File report = null;
+        String dir = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                workers = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--no-cache")) {
+                useCache = false;
+            } else if (args[i].equals("--watch")) {
+                watch = true;
+            } else if (args[i].equals("--report") && i + 1 < args.length) {
+                report = new File(args[++i]);
+            } else if (dir == null) {
+                dir = args[i];
+            } else {
+                dir = null;
+                break;
+            }
+        }
+
+        if (dir == null) {
+            System.err.println("Usage: java Main [-j workers] [--no-cache] [--watch] [--report metrics.json] <directory>");
             System.exit(1);
         }
 
-        File inputDir = new File(args[0]);
+        File inputDir = new File(dir);
         if (!inputDir.isDirectory()) {
             System.err.println("Not a directory.");
             System.exit(1);
@@ -18,10 +47,75 @@ public class Main {
         File outputDir = new File(inputDir, "jack_source");
         outputDir.mkdir();
 
-        JackDecompiler decompiler = new JackDecompiler(inputDir);
-        decompiler.decompileAll();
+        // Classes whose source and inferred metadata are unchanged reuse the Jack written by the last run
+        BuildCache cache = useCache ? new BuildCache(new File(inputDir, ".jackcache").toPath()) : null;
+        if (report != null) Metrics.enable();
+        JackDecompiler decompiler = decompile(inputDir, outputDir, workers, cache);
+        if (cache != null) {
+            System.out.println("Reused " + decompiler.getReusedClassCount() + " of " + decompiler.getClassMetadata().size() + " classes from the cache");
+        }
+        if (report != null) Metrics.writeReport(report);
+
+        if (watch) watch(inputDir, outputDir, workers, cache, report);
+    }
+
+    private static JackDecompiler decompile(File inputDir, File outputDir, int workers, BuildCache cache) throws IOException {
+        JackDecompiler decompiler = new JackDecompiler(inputDir, cache);
+        try (Metrics.Phase phase = Metrics.phase("decompiler.decompileAll", inputDir.getName())) {
+            decompiler.decompileAll();
+            phase.items("decompiler.classes", decompiler.getClassMetadata().size());
+        }
 
         VMToJackTranslator translator = new VMToJackTranslator(decompiler);
-        decompiler.writeJackFiles(outputDir, translator);
+        try (Metrics.Phase phase = Metrics.phase("decompiler.writeJackFiles", inputDir.getName())) {
+            decompiler.writeJackFiles(outputDir, translator, workers);
+            phase.items("decompiler.regeneratedClasses", decompiler.getClassMetadata().size() - decompiler.getReusedClassCount());
+        }
+        return decompiler;
+    }
+
+    // Keeps the JVM warm and redoes a cycle whenever a .vm file changes. The metadata is whole-program, so
+    // every cycle starts from a fresh decompiler; the cache limits Jack generation to the classes affected.
+    private static void watch(File inputDir, File outputDir, int workers, BuildCache cache, File report) throws IOException, InterruptedException {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            inputDir.toPath().register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            System.out.println("Watching " + inputDir + " for .vm changes (Ctrl-C to stop)");
+
+            int cycle = 0;
+            while (true) {
+                WatchKey key = watcher.take();
+                // Editors usually fire several events per save; let them settle into a single cycle
+                Thread.sleep(50);
+
+                boolean changed = false;
+                for (; key != null; key = watcher.poll()) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            changed = true;
+                            continue;
+                        }
+                        String name = event.context().toString();
+                        if (!name.endsWith(".vm")) continue;
+                        changed = true;
+                        if (event.kind() == ENTRY_DELETE) {
+                            Files.deleteIfExists(new File(outputDir, name.replace(".vm", ".jack")).toPath());
+                        }
+                    }
+                    if (!key.reset()) {
+                        System.err.println(inputDir + " is no longer accessible, stopping.");
+                        return;
+                    }
+                }
+                if (!changed) continue;
+
+                long start = System.nanoTime();
+                JackDecompiler decompiler = decompile(inputDir, outputDir, workers, cache);
+                long micros = (System.nanoTime() - start) / 1000;
+                int total = decompiler.getClassMetadata().size();
+                System.out.printf("Cycle %d: regenerated %d of %d classes in %d.%03d ms%n", ++cycle, total - decompiler.getReusedClassCount(), total, micros / 1000, micros % 1000);
+                // The report accumulates over every cycle so far
+                if (report != null) Metrics.writeReport(report);
+            }
+        }
     }
 }
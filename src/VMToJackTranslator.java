@@ -1,6 +1,3 @@
-import VMTranslator.vmcode.VMParser;
-import VMTranslator.vmcode.VMinstruction;
-
 import java.util.List;
 
 public class VMToJackTranslator {
@@ -10,12 +7,10 @@ public class VMToJackTranslator {
         this.decompiler = decompiler;
     }
 
-    public List<String> translate(List<String> vmInstructions, JackDecompiler.FunctionMetadata fn) throws Exception {
-        // Step 1: Parse the VM instructions into VMinstruction list
-        VMParser parser = new VMParser(vmInstructions, "Main");
-        List<VMinstruction> parsed = parser.parse();
+    public List<String> translate(JackDecompiler.FunctionMetadata fn) throws Exception {
+        // The grouped AST was already built once by JackDecompiler.parseVmFile
         JackCodeGenerator codeGenerator = new JackCodeGenerator(decompiler);
-        // Step 3: Use JackCodeGenerator to generate Jack source code lines from the AST
-        return codeGenerator.generateJackCode(parsed, fn);
+        // Use JackCodeGenerator to generate Jack source code lines from the AST
+        return codeGenerator.generateJackCode(fn.instructions, fn);
     }
-}
\ No newline at end of file
+}
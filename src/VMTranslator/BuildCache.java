@@ -0,0 +1,119 @@
+package VMTranslator;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of per-class outputs.
+ * Every entry is stored under its class name together with the key it was built from; a lookup only
+ * succeeds when the stored key matches, so a changed source or a changed whole-program fact simply
+ * misses and the entry is overwritten on the next store. Keys include fingerprint() of the code that
+ * produced the output, so entries written by any other build of the tools miss as well.
+ */
+public final class BuildCache {
+    private static final Map<String, String> fingerprints = new ConcurrentHashMap<>(); //Code location -> fingerprint
+    private final Path dir;
+
+    public BuildCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * SHA-256 over the given parts, each terminated by a NUL so that ("ab","c") and ("a","bc") differ
+     */
+    public static String hash(String... parts) {
+        MessageDigest digest = sha256();
+        for (String part : parts) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Hash of the compiled code the anchor classes were loaded from: every .class file of a class directory, or
+     * the whole jar. Any rebuild that changes the tools changes it, with no version to bump by hand. When the
+     * code cannot be read, a fresh random value makes every lookup miss rather than risk stale output.
+     */
+    public static String fingerprint(Class<?>... anchors) {
+        StringBuilder parts = new StringBuilder();
+        for (Class<?> anchor : anchors) {
+            CodeSource source = anchor.getProtectionDomain().getCodeSource();
+            String location = source == null || source.getLocation() == null ? null : source.getLocation().toString();
+            parts.append(location == null ? UUID.randomUUID().toString() : fingerprints.computeIfAbsent(location, BuildCache::hashClasses)).append(' ');
+        }
+        return hash(parts.toString());
+    }
+
+    private static String hashClasses(String location) {
+        try {
+            Path root = Path.of(new URI(location));
+            MessageDigest digest = sha256();
+            if (Files.isDirectory(root)) {
+                List<Path> classes;
+                try (Stream<Path> files = Files.walk(root)) {
+                    classes = files.filter(f -> f.toString().endsWith(".class")).sorted().toList();
+                }
+                for (Path file : classes) {
+                    digest.update(root.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                    digest.update(Files.readAllBytes(file));
+                }
+            } else {
+                digest.update(Files.readAllBytes(root));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the cached content for name if it was stored under key, otherwise null
+     */
+    public String get(String name, String key) throws IOException {
+        String stored;
+        try {
+            stored = Files.readString(entry(name));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        String header = key + "\n";
+        return stored.startsWith(header) ? stored.substring(header.length()) : null;
+    }
+
+    public void put(String name, String key, String content) throws IOException {
+        Files.createDirectories(dir);
+        // Write aside and move into place so concurrent or interrupted runs never see a torn entry
+        Path tmp = Files.createTempFile(dir, name, ".tmp");
+        Files.writeString(tmp, key + "\n" + content);
+        Files.move(tmp, entry(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path entry(String name) {
+        return dir.resolve(name + ".cache");
+    }
+}
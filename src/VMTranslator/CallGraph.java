@@ -0,0 +1,120 @@
+package VMTranslator;
+
+import VMTranslator.vmcode.CallInstruction;
+import VMTranslator.vmcode.FunctionInstruction;
+import VMTranslator.vmcode.InstructionWalker;
+import VMTranslator.vmcode.VMinstruction;
+
+import java.util.*;
+
+/**
+ * Whole-program call graph over grouped VM instructions: which functions each defined function calls.
+ * Calls to functions that no module defines stay as edges but never become nodes.
+ */
+public final class CallGraph {
+    private final Map<String, Set<String>> callees = new LinkedHashMap<>(); //Defined function -> functions it calls
+    private final Map<String, Integer> arguments = new HashMap<>(); //Called function -> arguments every call passes, -1 when calls disagree
+
+    public static CallGraph build(Collection<List<VMinstruction>> modules) {
+        CallGraph graph = new CallGraph();
+        for (List<VMinstruction> instructions : modules) {
+            Set<String> current = null;
+            for (VMinstruction inst : instructions) {
+                if (inst instanceof FunctionInstruction f) {
+                    current = graph.callees.computeIfAbsent(f.getFuncName(), k -> new LinkedHashSet<>());
+                    continue;
+                }
+                if (current == null) continue;
+                Set<String> calls = current;
+                InstructionWalker.walk(inst, node -> {
+                    if (!(node instanceof CallInstruction c)) return;
+                    calls.add(c.getFunctionName());
+                    graph.arguments.merge(c.getFunctionName(), c.getArgs(), (x, y) -> x.equals(y) ? x : -1);
+                });
+            }
+        }
+        return graph;
+    }
+
+    public Set<String> getFunctions() {
+        return Collections.unmodifiableSet(callees.keySet());
+    }
+
+    public boolean isDefined(String function) {
+        return callees.containsKey(function);
+    }
+
+    public Set<String> getCallees(String function) {
+        return Collections.unmodifiableSet(callees.getOrDefault(function, Set.of()));
+    }
+
+    //Called function -> arguments every call passes, -1 when calls disagree
+    public Map<String, Integer> getArgumentCounts() {
+        return Collections.unmodifiableMap(arguments);
+    }
+
+    public boolean isCalled(String function) {
+        return arguments.containsKey(function);
+    }
+
+    //Number of arguments every call to function passes, or -1 when calls disagree or there are none
+    public int getArgumentCount(String function) {
+        return arguments.getOrDefault(function, -1);
+    }
+
+    /**
+     * Every defined function that root can reach through calls, root included when it is defined
+     */
+    public Set<String> reachableFrom(String root) {
+        Set<String> reached = new LinkedHashSet<>();
+        Deque<String> todo = new ArrayDeque<>(List.of(root));
+        while (!todo.isEmpty()) {
+            String fn = todo.removeFirst();
+            if (!isDefined(fn) || !reached.add(fn)) continue;
+            todo.addAll(callees.get(fn));
+        }
+        return reached;
+    }
+
+    /**
+     * Tarjan's strongly connected components of the defined functions, each component after every component it calls
+     * into; a function is recursive when its component has more than one member or it calls itself
+     */
+    public List<Set<String>> stronglyConnectedComponents() {
+        Map<String, Integer> index = new HashMap<>();
+        Map<String, Integer> lowLink = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Set<String> onStack = new HashSet<>();
+        List<Set<String>> components = new ArrayList<>();
+        for (String fn : callees.keySet()) {
+            if (!index.containsKey(fn)) strongConnect(fn, index, lowLink, stack, onStack, components);
+        }
+        return components;
+    }
+
+    private void strongConnect(String fn, Map<String, Integer> index, Map<String, Integer> lowLink, Deque<String> stack, Set<String> onStack, List<Set<String>> components) {
+        index.put(fn, index.size());
+        lowLink.put(fn, index.get(fn));
+        stack.push(fn);
+        onStack.add(fn);
+        for (String callee : callees.get(fn)) {
+            if (!isDefined(callee)) continue;
+            if (!index.containsKey(callee)) {
+                strongConnect(callee, index, lowLink, stack, onStack, components);
+                lowLink.put(fn, Math.min(lowLink.get(fn), lowLink.get(callee)));
+            } else if (onStack.contains(callee)) {
+                lowLink.put(fn, Math.min(lowLink.get(fn), index.get(callee)));
+            }
+        }
+        if (lowLink.get(fn).equals(index.get(fn))) {
+            Set<String> component = new LinkedHashSet<>();
+            String member;
+            do {
+                member = stack.pop();
+                onStack.remove(member);
+                component.add(member);
+            } while (!member.equals(fn));
+            components.add(component);
+        }
+    }
+}
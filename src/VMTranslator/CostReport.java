@@ -0,0 +1,204 @@
+package VMTranslator;
+
+import VMTranslator.vmcode.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Static size and speed model of the generated assembly.
+ * Every Hack instruction is one ROM word and takes one cycle. A function's straight-line cycle count is the cost
+ * of executing each of its instructions once, plus the shared CALL, RETURN and compare routines at each jump
+ * into them, as measured from the bootstrap code.
+ */
+public final class CostReport {
+    public static final int ROM_LIMIT = 32768;
+    private static final int TOP_IDIOMS = 15;
+
+    private final Map<String, Integer> routineCycles = new HashMap<>(); //Shared routine label -> cycles per round trip
+    private final int bootstrapWords;
+    private final Map<String, List<FunctionCost>> functionsByModule = new HashMap<>();
+    private final Map<String, Map<String, IdiomCost>> idiomsByModule = new HashMap<>();
+
+    public CostReport(List<String> bootstrap) {
+        int words = 0;
+        for (String line : bootstrap) {
+            if (AsmWriter.isRealInstruction(line)) words++;
+        }
+        bootstrapWords = words;
+
+        for (SavedPointers saved : SavedPointers.values()) {
+            routineCycles.put(saved.callRoutine(), blockCost(bootstrap, saved.callRoutine()));
+            routineCycles.put(saved.returnRoutine(), blockCost(bootstrap, saved.returnRoutine()));
+        }
+        // A call stub runs its own block and then the CALL routine it jumps to at the end
+        for (String line : bootstrap) {
+            if (!line.startsWith("(STUB.")) continue;
+            String label = line.substring(1, line.length() - 1);
+            int end = bootstrap.indexOf(line) + 1;
+            while (end < bootstrap.size() && !bootstrap.get(end).startsWith("(")) end++;
+            String target = bootstrap.get(end - 2).substring(1);
+            routineCycles.put(label, blockCost(bootstrap, label) + routineCycles.getOrDefault(target, 0));
+        }
+        // A divide by a power of two runs at most every instruction of its routine, then the write back
+        for (String line : bootstrap) {
+            if (!line.startsWith("(DIV_POW2.") || line.indexOf('.', 10) >= 0) continue;
+            String label = line.substring(1, line.length() - 1);
+            int cost = 0;
+            for (int i = bootstrap.indexOf(line) + 1; i < bootstrap.size() && (!bootstrap.get(i).startsWith("(") || bootstrap.get(i).startsWith("(" + label + ".")); i++) {
+                if (AsmWriter.isRealInstruction(bootstrap.get(i))) cost++;
+            }
+            routineCycles.put(label, cost + blockCost(bootstrap, "WRITE_BACK"));
+        }
+        // A compare runs its DO_ block, one of the two result blocks, then the write back
+        int result = Math.max(blockCost(bootstrap, "RETURN_TRUE"), blockCost(bootstrap, "RETURN_FALSE")) + blockCost(bootstrap, "WRITE_BACK");
+        for (String compare : List.of("DO_GT", "DO_EQ", "DO_LT")) {
+            routineCycles.put(compare, blockCost(bootstrap, compare) + result);
+        }
+    }
+
+    //Real instructions from (label) up to the next label
+    private static int blockCost(List<String> code, String label) {
+        int start = code.indexOf("(" + label + ")");
+        if (start < 0) return 0;
+        int cost = 0;
+        for (int i = start + 1; i < code.size() && !code.get(i).startsWith("("); i++) {
+            if (AsmWriter.isRealInstruction(code.get(i))) cost++;
+        }
+        return cost;
+    }
+
+    public static final class FunctionCost {
+        public final String name;
+        public int words;
+        public long cycles;
+        public int calls;
+        public int returns;
+        public int compares;
+
+        FunctionCost(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class IdiomCost {
+        final String name;
+        int count;
+        int words;
+        long cycles;
+
+        IdiomCost(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Costs of one module, filled in by a single translation thread and handed back with add()
+     */
+    public final class Module {
+        private final String name;
+        private final List<FunctionCost> functions = new ArrayList<>();
+        private final Map<String, IdiomCost> idioms = new HashMap<>();
+        private FunctionCost current;
+
+        private Module(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Attributes the lines asm[from, asm.size()) to inst and to the function it belongs to
+         */
+        public void record(VMinstruction inst, AsmBuffer asm, int from) {
+            if (inst instanceof FunctionInstruction f) {
+                current = new FunctionCost(f.getFuncName());
+                functions.add(current);
+            } else if (current == null) {
+                //Code before the first function declaration is charged to the module itself
+                current = new FunctionCost(name);
+                functions.add(current);
+            }
+            IdiomCost idiom = idioms.computeIfAbsent(idiomName(inst), IdiomCost::new);
+            idiom.count++;
+
+            for (int i = from; i < asm.size(); i++) {
+                String line = asm.get(i);
+                if (!AsmWriter.isRealInstruction(line)) continue;
+                current.words++;
+                current.cycles++;
+                idiom.words++;
+                idiom.cycles++;
+
+                Integer routine = line.startsWith("@") ? routineCycles.get(line.substring(1).trim()) : null;
+                if (routine == null) continue;
+                current.cycles += routine;
+                idiom.cycles += routine;
+                String label = line.substring(1).trim();
+                if (label.startsWith("CALL") || label.startsWith("STUB.")) current.calls++;
+                else if (label.startsWith("RETURN")) current.returns++;
+                else if (label.startsWith("DO_")) current.compares++;
+            }
+        }
+    }
+
+    //The instruction kind, refined by what a PushPopPair or PushWriter moves, e.g. PushPopPair<CallGroup>
+    private static String idiomName(VMinstruction inst) {
+        String name = inst.getClass().getSimpleName();
+        return switch (inst) {
+            case PushPopPair ppp -> name + "<" + ppp.getPush().getClass().getSimpleName() + ">";
+            case PushWriter pw -> name + "<" + pw.getSource().getClass().getSimpleName() + ">";
+            case ReturnInstruction r when r.getPg() != null -> name + "<" + r.getPg().getClass().getSimpleName() + ">";
+            default -> name;
+        };
+    }
+
+    public Module module(String name) {
+        return new Module(name);
+    }
+
+    public synchronized void add(Module module) {
+        functionsByModule.put(module.name, module.functions);
+        idiomsByModule.put(module.name, module.idioms);
+    }
+
+    /**
+     * Writes one row per function in the given module order, the idioms that cost the most cycles in total,
+     * and the program size against the Hack ROM limit
+     */
+    public synchronized void write(File file, List<String> moduleOrder) throws IOException {
+        Map<String, IdiomCost> idioms = new TreeMap<>();
+        for (Map<String, IdiomCost> moduleIdioms : idiomsByModule.values()) {
+            for (IdiomCost cost : moduleIdioms.values()) {
+                IdiomCost total = idioms.computeIfAbsent(cost.name, IdiomCost::new);
+                total.count += cost.count;
+                total.words += cost.words;
+                total.cycles += cost.cycles;
+            }
+        }
+
+        int romWords = bootstrapWords;
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))) {
+            out.printf("%-40s %8s %10s %6s %6s %6s%n", "function", "words", "cycles", "calls", "rets", "cmps");
+            for (String module : moduleOrder) {
+                for (FunctionCost fn : functionsByModule.getOrDefault(module, List.of())) {
+                    out.printf("%-40s %8d %10d %6d %6d %6d%n", fn.name, fn.words, fn.cycles, fn.calls, fn.returns, fn.compares);
+                    romWords += fn.words;
+                }
+            }
+
+            out.println();
+            out.printf("%-40s %8s %10s %8s %10s%n", "most expensive idioms", "count", "words", "words/op", "cycles");
+            idioms.values().stream()
+                    .sorted(Comparator.comparingLong((IdiomCost c) -> c.cycles).reversed())
+                    .limit(TOP_IDIOMS)
+                    .forEach(c -> out.printf(Locale.ROOT, "%-40s %8d %10d %8.1f %10d%n", c.name, c.count, c.words, (double) c.words / c.count, c.cycles));
+
+            out.println();
+            out.printf("routine round trips (cycles): CALL %d, RETURN %d, compare %d%n", routineCycles.get("CALL"), routineCycles.get("RETURN"), routineCycles.get("DO_GT"));
+            out.printf("shared routines %d words, program %d words of %d ROM (%s)%n", bootstrapWords, romWords, ROM_LIMIT,
+                    romWords <= ROM_LIMIT ? (ROM_LIMIT - romWords) + " free" : "OVER BY " + (romWords - ROM_LIMIT));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package VMTranslator;
+
+import VMTranslator.vmcode.*;
+
+import java.util.*;
+
+/**
+ * Gives functions that can never be active twice at once a fixed block of RAM in place of a stack frame.
+ * A function qualifies when it is in no recursive cycle and every call to it passes the same number of arguments.
+ * Blocks are overlaid: a function's block only has to stay clear of the blocks of the functions it can reach, so
+ * it is placed just above the highest of those. Blocks live between the statics and the stack, and callers that no
+ * longer fit there keep their stack frames, which leaves the space to the leaves that are called most.
+ */
+public final class FrameAllocator {
+    private static final int VARIABLES_START = 16;
+    private static final int STACK_START = 256;
+
+    private final Map<String, StaticFrame> frames = new TreeMap<>();
+    private int words;
+
+    /**
+     * Allocates frames for the live functions of every module (module name -> grouped instructions), with room for
+     * the pointers saves says each one keeps for its callers; entryPoint is called once by the bootstrap code,
+     * with no arguments
+     */
+    public FrameAllocator(Map<String, List<VMinstruction>> modules, Set<String> live, String entryPoint, Map<String, SavedPointers> saves) {
+        Map<String, Integer> locals = new HashMap<>();
+        Map<String, Integer> argsRead = new HashMap<>(); //Highest argument index read, plus one
+        Set<String> statics = new HashSet<>();
+
+        for (Map.Entry<String, List<VMinstruction>> module : modules.entrySet()) {
+            String[] current = {null};
+            for (VMinstruction inst : module.getValue()) {
+                if (inst instanceof FunctionInstruction f) {
+                    current[0] = f.getFuncName();
+                    locals.put(f.getFuncName(), f.getNumLocals());
+                    continue;
+                }
+                InstructionWalker.walk(inst, node -> {
+                    Address a = switch (node) {
+                        case PushInstruction pi -> pi.getAddress();
+                        case PopInstruction pop -> pop.getAddress();
+                        default -> null;
+                    };
+                    if (a == null) return;
+                    if (a.getSegment() == Segment.STATIC) statics.add(module.getKey() + "." + a.getIndex());
+                    if (a.getSegment() == Segment.ARGUMENT && current[0] != null) argsRead.merge(current[0], a.getIndex() + 1, Math::max);
+                });
+            }
+        }
+
+        // The assembler gives statics the addresses from 16 up, and so too the names of functions no module defines
+        CallGraph graph = CallGraph.build(modules.values());
+        Set<String> undefined = new HashSet<>();
+        for (String fn : graph.getFunctions()) {
+            for (String callee : graph.getCallees(fn)) if (!graph.isDefined(callee)) undefined.add(callee);
+        }
+        int start = VARIABLES_START + statics.size() + undefined.size();
+        Map<String, Integer> height = new HashMap<>(); //Words taken by the blocks of a function and everything it reaches
+        for (Set<String> component : graph.stronglyConnectedComponents()) {
+            int below = 0;
+            for (String fn : component) {
+                for (String callee : graph.getCallees(fn)) {
+                    if (!component.contains(callee)) below = Math.max(below, height.getOrDefault(callee, 0));
+                }
+            }
+
+            int top = below;
+            String fn = component.iterator().next();
+            // The bootstrap code calls the entry point with no arguments
+            int n = !fn.equals(entryPoint) ? graph.getArgumentCount(fn) : graph.isCalled(fn) && graph.getArgumentCount(fn) != 0 ? -1 : 0;
+            if (component.size() == 1 && !graph.getCallees(fn).contains(fn) && live.contains(fn) && n >= 0 && argsRead.getOrDefault(fn, 0) <= n) {
+                SavedPointers saved = saves.getOrDefault(fn, SavedPointers.BOTH);
+                StaticFrame frame = new StaticFrame(start + below, n, locals.get(fn), saved.savesThis(), saved.savesThat());
+                if (frame.base() + frame.size() <= STACK_START) {
+                    frames.put(fn, frame);
+                    top += frame.size();
+                }
+            }
+            for (String member : component) height.put(member, top);
+            words = Math.max(words, top);
+        }
+    }
+
+    public Map<String, StaticFrame> getFrames() {
+        return Collections.unmodifiableMap(frames);
+    }
+
+    //RAM words the overlaid blocks take together
+    public int getWords() {
+        return words;
+    }
+
+    //Changes whenever any frame does, for keying cached output of modules that call or define it
+    public String signature() {
+        return frames.toString();
+    }
+}
@@ -0,0 +1,227 @@
+package VMTranslator;
+
+import VMTranslator.vmcode.AsmSink;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Assembles the decoded instruction stream straight into Hack machine code.
+ * Labels are bound as they are seen and symbolic A-instructions are patched once the whole
+ * program is known; symbols that never become labels are allocated as variables from RAM[16],
+ * in order of first use, just like the standalone assembler.
+ */
+public class HackAssembler implements AsmSink {
+    private static final int MAX_ROM = 32768;
+    private static final Map<String, Integer> PREDEFINED = new HashMap<>();
+    private static final Map<String, Integer> COMP = new HashMap<>();
+    private static final Map<String, Integer> JUMP = Map.of("JGT", 1, "JEQ", 2, "JGE", 3, "JLT", 4, "JNE", 5, "JLE", 6, "JMP", 7);
+
+    static {
+        PREDEFINED.putAll(Map.of("SP", 0, "LCL", 1, "ARG", 2, "THIS", 3, "THAT", 4, "SCREEN", 16384, "KBD", 24576));
+        for (int i = 0; i < 16; i++) PREDEFINED.put("R" + i, i);
+
+        // a-bit followed by the six c-bits
+        String[][] table = {{"0", "0101010"}, {"1", "0111111"}, {"-1", "0111010"}, {"D", "0001100"}, {"A", "0110000"}, {"!D", "0001101"}, {"!A", "0110001"}, {"-D", "0001111"}, {"-A", "0110011"}, {"D+1", "0011111"}, {"A+1", "0110111"}, {"D-1", "0001110"}, {"A-1", "0110010"}, {"D+A", "0000010"}, {"D-A", "0010011"}, {"A-D", "0000111"}, {"D&A", "0000000"}, {"D|A", "0010101"}};
+        for (String[] entry : table) {
+            int bits = Integer.parseInt(entry[1], 2);
+            COMP.put(entry[0], bits);
+            if (entry[0].contains("A")) COMP.put(entry[0].replace('A', 'M'), bits | 0b1000000);
+        }
+        // Commuted spellings of the symmetric operations
+        for (String reg : List.of("A", "M")) {
+            COMP.put(reg + "+D", COMP.get("D+" + reg));
+            COMP.put(reg + "&D", COMP.get("D&" + reg));
+            COMP.put(reg + "|D", COMP.get("D|" + reg));
+            COMP.put("1+" + reg, COMP.get(reg + "+1"));
+        }
+        COMP.put("1+D", COMP.get("D+1"));
+    }
+
+    private int[] code = new int[1024];
+    private int size;
+    private final Map<Integer, String> unresolved = new HashMap<>(); //ROM address -> symbol of a symbolic A-instruction
+    private final Map<String, Integer> labels = new LinkedHashMap<>();
+    private final Map<String, Integer> variables = new LinkedHashMap<>();
+    private String pending; //Held back so the last emitted line can still be amended
+    private boolean resolved;
+
+    @Override
+    public void add(String line) {
+        assemblePending();
+        pending = line;
+    }
+
+    @Override
+    public String last() {
+        if (pending == null) throw new IllegalStateException("Only the most recently emitted line can be amended");
+        return pending;
+    }
+
+    @Override
+    public void replaceLast(String line) {
+        last();
+        pending = line;
+    }
+
+    @Override
+    public void removeLast() {
+        last();
+        pending = null;
+    }
+
+    private void assemblePending() {
+        if (pending == null) return;
+        String line = pending;
+        pending = null;
+
+        int comment = line.indexOf("//");
+        if (comment >= 0) line = line.substring(0, comment);
+        line = line.trim();
+        if (line.isEmpty()) return;
+
+        if (line.startsWith("(")) {
+            String label = line.substring(1, line.length() - 1);
+            if (labels.putIfAbsent(label, size) != null) {
+                throw new IllegalArgumentException("Duplicate label: " + label);
+            }
+        } else if (line.startsWith("@")) {
+            String value = line.substring(1);
+            if (Character.isDigit(value.charAt(0))) {
+                emitWord(Integer.parseInt(value));
+            } else {
+                unresolved.put(size, value);
+                emitWord(0);
+            }
+        } else {
+            emitWord(encodeC(line));
+        }
+    }
+
+    private void emitWord(int word) {
+        if (size == code.length) code = Arrays.copyOf(code, size * 2);
+        code[size++] = word;
+    }
+
+    private static int encodeC(String line) {
+        int dest = 0, jump = 0;
+        String comp = line;
+
+        int eq = comp.indexOf('=');
+        if (eq >= 0) {
+            for (char c : comp.substring(0, eq).toCharArray()) {
+                dest |= switch (c) {
+                    case 'A' -> 0b100;
+                    case 'D' -> 0b010;
+                    case 'M' -> 0b001;
+                    default -> throw new IllegalArgumentException("Unknown destination in: " + line);
+                };
+            }
+            comp = comp.substring(eq + 1);
+        }
+
+        int semi = comp.indexOf(';');
+        if (semi >= 0) {
+            Integer j = JUMP.get(comp.substring(semi + 1));
+            if (j == null) throw new IllegalArgumentException("Unknown jump in: " + line);
+            jump = j;
+            comp = comp.substring(0, semi);
+        }
+
+        Integer c = COMP.get(comp);
+        if (c == null) throw new IllegalArgumentException("Unknown computation in: " + line);
+        return 0b111 << 13 | c << 6 | dest << 3 | jump;
+    }
+
+    /**
+     * Second pass: binds every symbolic A-instruction to its label or to a freshly allocated variable
+     */
+    private void resolve() {
+        if (resolved) return;
+        assemblePending();
+        if (size > MAX_ROM) {
+            throw new RomOverflowException(size, MAX_ROM);
+        }
+
+        int nextVariable = 16;
+        List<Integer> addresses = new ArrayList<>(unresolved.keySet());
+        Collections.sort(addresses);
+        for (int address : addresses) {
+            String symbol = unresolved.get(address);
+            Integer value = labels.get(symbol);
+            if (value == null) value = PREDEFINED.get(symbol);
+            if (value == null) value = variables.get(symbol);
+            if (value == null) {
+                value = nextVariable++;
+                variables.put(symbol, value);
+            }
+            code[address] = value;
+        }
+        resolved = true;
+    }
+
+    public int getRomSize() {
+        resolve();
+        return size;
+    }
+
+    public short[] getRom() {
+        resolve();
+        short[] rom = new short[size];
+        for (int i = 0; i < size; i++) rom[i] = (short) code[i];
+        return rom;
+    }
+
+    //Label -> ROM address
+    public Map<String, Integer> getLabels() {
+        resolve();
+        return Collections.unmodifiableMap(labels);
+    }
+
+    /**
+     * Writes one 16-character binary word per line, as the CPU emulator and hardware simulator expect
+     */
+    public void writeHack(File file) throws IOException {
+        resolve();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))) {
+            char[] word = new char[16];
+            for (int i = 0; i < size; i++) {
+                for (int bit = 0; bit < 16; bit++) {
+                    word[bit] = (code[i] >> (15 - bit) & 1) == 1 ? '1' : '0';
+                }
+                out.println(word);
+            }
+        }
+    }
+
+    /**
+     * Writes the ROM image as raw big-endian 16-bit words
+     */
+    public void writeBinary(File file) throws IOException {
+        resolve();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file.toPath()))) {
+            for (int i = 0; i < size; i++) {
+                out.writeShort(code[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes every label with its ROM address and every variable with its RAM address
+     */
+    public void writeSymbolMap(File file) throws IOException {
+        resolve();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))) {
+            for (Map.Entry<String, Integer> e : labels.entrySet()) {
+                out.println("ROM " + e.getValue() + " " + e.getKey());
+            }
+            for (Map.Entry<String, Integer> e : variables.entrySet()) {
+                out.println("RAM " + e.getValue() + " " + e.getKey());
+            }
+        }
+    }
+}
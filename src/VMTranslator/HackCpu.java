@@ -0,0 +1,221 @@
+package VMTranslator;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless Hack CPU: executes one instruction per cycle against a 32K data memory whose screen is kept as plain
+ * RAM and whose keyboard register is fed from a timed key script.
+ * Runs stop when a chosen ROM address has been reached a given number of times, or when the cycle budget runs out.
+ * <p>
+ * Usage: java VMTranslator.HackCpu [--max-cycles N] [--stop-at label[:count]] [--keys text] <program.asm | .hack | .bin>
+ */
+public final class HackCpu {
+    public static final int SCREEN = 16384;
+    public static final int KBD = 24576;
+    public static final int NEWLINE_KEY = 128;
+
+    private final short[] rom;
+    private final short[] ram = new short[KBD + 1];
+    private final Map<String, Integer> labels; //Label -> ROM address, when the program came with symbols
+    private int pc;
+    private short a, d;
+    private long cycles;
+
+    // Each key of the script is held for keyHold cycles and followed by keyGap cycles with no key down
+    private String keys = "";
+    private long keyStart;
+    private int keyHold = 50_000;
+    private int keyGap = 50_000;
+
+    public HackCpu(short[] rom, Map<String, Integer> labels) {
+        this.rom = rom;
+        this.labels = labels;
+    }
+
+    public static HackCpu load(File program) throws IOException {
+        String name = program.getName();
+        if (name.endsWith(".asm")) {
+            HackAssembler assembler = new HackAssembler();
+            for (String line : Files.readAllLines(program.toPath())) assembler.add(line);
+            return new HackCpu(assembler.getRom(), assembler.getLabels());
+        }
+
+        short[] rom = name.endsWith(".bin") ? readBinary(program) : readHack(program);
+        File sym = new File(program.getAbsoluteFile().getParentFile(), name.substring(0, name.lastIndexOf('.')) + ".sym");
+        return new HackCpu(rom, sym.exists() ? readSymbols(sym) : Map.of());
+    }
+
+    private static short[] readHack(File file) throws IOException {
+        List<String> lines = Files.readAllLines(file.toPath());
+        short[] rom = new short[lines.size()];
+        int size = 0;
+        for (String line : lines) {
+            line = line.trim();
+            if (!line.isEmpty()) rom[size++] = (short) Integer.parseInt(line, 2);
+        }
+        return Arrays.copyOf(rom, size);
+    }
+
+    private static short[] readBinary(File file) throws IOException {
+        List<Short> words = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            while (true) words.add(in.readShort());
+        } catch (EOFException end) {
+            // Whole file read
+        }
+        short[] rom = new short[words.size()];
+        for (int i = 0; i < rom.length; i++) rom[i] = words.get(i);
+        return rom;
+    }
+
+    //Reads the "ROM address label" lines of a symbol map written by HackAssembler
+    private static Map<String, Integer> readSymbols(File file) throws IOException {
+        Map<String, Integer> labels = new HashMap<>();
+        for (String line : Files.readAllLines(file.toPath())) {
+            String[] parts = line.split(" ");
+            if (parts.length == 3 && parts[0].equals("ROM")) labels.put(parts[2], Integer.parseInt(parts[1]));
+        }
+        return labels;
+    }
+
+    public Integer getLabel(String label) {
+        return labels.get(label);
+    }
+
+    /**
+     * Types keys, starting at the given cycle; '\n' is sent as the Hack newline key
+     */
+    public void setKeys(String keys, long startCycle, int holdCycles, int gapCycles) {
+        this.keys = keys;
+        this.keyStart = startCycle;
+        this.keyHold = holdCycles;
+        this.keyGap = gapCycles;
+    }
+
+    private short keyAt(long cycle) {
+        if (keys.isEmpty() || cycle < keyStart) return 0;
+        long slot = (cycle - keyStart) / (keyHold + keyGap);
+        if (slot >= keys.length() || (cycle - keyStart) % (keyHold + keyGap) >= keyHold) return 0;
+        char key = keys.charAt((int) slot);
+        return (short) (key == '\n' ? NEWLINE_KEY : key);
+    }
+
+    /**
+     * Runs until the instruction at stopAddress is about to execute for the stopCount-th time (a negative address
+     * never stops), or until maxCycles instructions have run. Returns whether the stop address was reached.
+     */
+    public boolean run(long maxCycles, int stopAddress, int stopCount) {
+        int reached = 0;
+        while (cycles < maxCycles) {
+            if (pc == stopAddress && ++reached == stopCount) return true;
+            step();
+        }
+        return false;
+    }
+
+    public void step() {
+        if (pc < 0 || pc >= rom.length) throw new IllegalStateException("PC out of ROM: " + pc + " after " + cycles + " cycles");
+        int instruction = rom[pc] & 0xFFFF;
+        cycles++;
+
+        if ((instruction & 0x8000) == 0) {
+            a = (short) instruction;
+            pc++;
+            return;
+        }
+
+        int address = a & 0xFFFF;
+        int x = d;
+        int y = (instruction & 0x1000) != 0 ? read(address) : a;
+        if ((instruction & 0x0800) != 0) x = 0;
+        if ((instruction & 0x0400) != 0) x = ~x;
+        if ((instruction & 0x0200) != 0) y = 0;
+        if ((instruction & 0x0100) != 0) y = ~y;
+        int out = (instruction & 0x0080) != 0 ? x + y : x & y;
+        if ((instruction & 0x0040) != 0) out = ~out;
+        short result = (short) out;
+
+        // M is written at the address A held before this instruction
+        if ((instruction & 0x0008) != 0) write(address, result);
+        if ((instruction & 0x0020) != 0) a = result;
+        if ((instruction & 0x0010) != 0) d = result;
+
+        boolean jump = (instruction & 0x0004) != 0 && result < 0
+                || (instruction & 0x0002) != 0 && result == 0
+                || (instruction & 0x0001) != 0 && result > 0;
+        pc = jump ? address : pc + 1;
+    }
+
+    private short read(int address) {
+        if (address == KBD) return keyAt(cycles);
+        if (address > KBD) throw new IllegalStateException("Read outside RAM at " + address + ", PC " + pc);
+        return ram[address];
+    }
+
+    private void write(int address, short value) {
+        if (address >= KBD) throw new IllegalStateException("Write outside RAM at " + address + ", PC " + pc);
+        ram[address] = value;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public short peek(int address) {
+        return ram[address];
+    }
+
+    //Hash of the screen memory, for checking that two runs drew the same picture
+    public int screenHash() {
+        return Arrays.hashCode(Arrays.copyOfRange(ram, SCREEN, KBD));
+    }
+
+    public static void main(String[] args) throws IOException {
+        long maxCycles = 100_000_000L;
+        String stopAt = null;
+        String keys = "";
+        String program = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--max-cycles" -> maxCycles = Long.parseLong(args[++i]);
+                case "--stop-at" -> stopAt = args[++i];
+                case "--keys" -> keys = args[++i].replace("\\n", "\n");
+                default -> program = args[i];
+            }
+        }
+        if (program == null) {
+            System.err.println("Usage: java VMTranslator.HackCpu [--max-cycles N] [--stop-at label[:count]] [--keys text] <program.asm | .hack | .bin>");
+            System.exit(1);
+        }
+
+        HackCpu cpu = load(new File(program));
+        int stopAddress = -1, stopCount = 1;
+        if (stopAt != null) {
+            String[] parts = stopAt.split(":");
+            Integer address = cpu.getLabel(parts[0]);
+            if (address == null) {
+                System.err.println("Unknown label: " + parts[0]);
+                System.exit(1);
+            }
+            stopAddress = address;
+            if (parts.length > 1) stopCount = Integer.parseInt(parts[1]);
+        }
+        cpu.setKeys(keys, 0, cpu.keyHold, cpu.keyGap);
+
+        boolean stopped = cpu.run(maxCycles, stopAddress, stopCount);
+        System.out.printf("%d cycles (%s), screen hash %08x%n", cpu.getCycles(), stopped ? "stopped at " + stopAt : "cycle budget reached", cpu.screenHash());
+    }
+}
@@ -0,0 +1,141 @@
+package VMTranslator;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide timings and counters for the decompiler and translator pipelines.
+ * Every phase is also committed as a JFR event, so a recording started with -XX:StartFlightRecording
+ * shows the same breakdown per file or function. Counters that need an extra walk over the instructions
+ * are only collected once enable() has been called.
+ */
+public final class Metrics {
+    private static volatile boolean enabled;
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, PhaseTotals> phases = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void count(String counter, long delta) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Starts timing one run of a phase over subject (a file, class or function); close it when the phase ends
+     */
+    public static Phase phase(String name, String subject) {
+        return new Phase(name, subject);
+    }
+
+    /**
+     * Totals of one phase over all its runs. Runs on different workers overlap, so besides their summed time
+     * the wall time is kept: time during which at least one run was in progress.
+     */
+    private static final class PhaseTotals {
+        private final LongAdder runs = new LongAdder();
+        private final LongAdder threadNanos = new LongAdder();
+        private int active;
+        private long activeSince;
+        private long wallNanos;
+
+        synchronized void enter(long now) {
+            if (active++ == 0) activeSince = now;
+        }
+
+        synchronized void exit(long now, long elapsed) {
+            if (--active == 0) wallNanos += now - activeSince;
+            runs.increment();
+            threadNanos.add(elapsed);
+        }
+
+        synchronized long wallNanos() {
+            return wallNanos;
+        }
+    }
+
+    public static final class Phase implements AutoCloseable {
+        private final PhaseTotals totals;
+        private final PhaseEvent event = new PhaseEvent();
+        private final long start = System.nanoTime();
+
+        private Phase(String name, String subject) {
+            totals = phases.computeIfAbsent(name, k -> new PhaseTotals());
+            totals.enter(start);
+            event.phase = name;
+            event.subject = subject;
+            event.begin();
+        }
+
+        //Records work done by this run, e.g. lines parsed or asm lines emitted, on the event and on the counter
+        public void items(String counter, long items) {
+            event.items += items;
+            count(counter, items);
+        }
+
+        @Override
+        public void close() {
+            long now = System.nanoTime();
+            totals.exit(now, now - start);
+            event.commit();
+        }
+    }
+
+    @Name("jackdecompiler.Phase")
+    @Label("Pipeline Phase")
+    @Category("Jack Decompiler")
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Subject")
+        String subject;
+
+        @Label("Items")
+        long items;
+    }
+
+    /**
+     * Writes every phase and every counter as JSON. For each phase, "millis" is wall time, during which at least
+     * one run was in progress, and "threadMillis" is the time of all runs added up. The two differ when the runs
+     * of a phase are spread over worker threads.
+     */
+    public static void writeReport(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))) {
+            out.println("{");
+            out.println("  \"phases\": {");
+            int i = 0;
+            for (Map.Entry<String, PhaseTotals> e : phases.entrySet()) {
+                PhaseTotals totals = e.getValue();
+                out.printf(Locale.ROOT, "    \"%s\": {\"runs\": %d, \"millis\": %.3f, \"threadMillis\": %.3f}%s%n", e.getKey(), totals.runs.sum(), totals.wallNanos() / 1e6, totals.threadNanos.sum() / 1e6, ++i < phases.size() ? "," : "");
+            }
+            out.println("  },");
+            out.println("  \"counters\": {");
+            i = 0;
+            for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+                out.printf("    \"%s\": %d%s%n", e.getKey(), e.getValue().sum(), ++i < counters.size() ? "," : "");
+            }
+            out.println("  }");
+            out.println("}");
+        }
+    }
+}
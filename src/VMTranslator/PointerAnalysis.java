@@ -0,0 +1,82 @@
+package VMTranslator;
+
+import VMTranslator.vmcode.*;
+
+import java.util.*;
+
+/**
+ * Works out which of THIS and THAT each function has to save for its callers. Every function puts back what it
+ * repoints, so a function needs to save a pointer only when it writes it itself, and only when some function
+ * above it in the call graph reads or writes that pointer and so could notice the change after the call returns.
+ */
+public final class PointerAnalysis {
+    private static final Address POINTER_0 = Address.of(Segment.POINTER, (short) 0);
+    private static final Address POINTER_1 = Address.of(Segment.POINTER, (short) 1);
+
+    private final Map<String, SavedPointers> writes = new TreeMap<>();
+    private final Map<String, SavedPointers> saves = new TreeMap<>();
+
+    //Analyses every defined function of the grouped modules
+    public PointerAnalysis(Collection<List<VMinstruction>> modules) {
+        Set<String> writesThis = new HashSet<>(), writesThat = new HashSet<>();
+        Set<String> usesThis = new HashSet<>(), usesThat = new HashSet<>();
+        for (List<VMinstruction> instructions : modules) {
+            String[] current = {null};
+            for (VMinstruction inst : instructions) {
+                if (inst instanceof FunctionInstruction f) {
+                    current[0] = f.getFuncName();
+                    continue;
+                }
+                if (current[0] == null) continue;
+                InstructionWalker.walk(inst, node -> {
+                    Address a = switch (node) {
+                        case PushInstruction pi -> pi.getAddress();
+                        case PopInstruction pop -> {
+                            if (pop.getAddress() == POINTER_0) writesThis.add(current[0]);
+                            if (pop.getAddress() == POINTER_1) writesThat.add(current[0]);
+                            yield pop.getAddress();
+                        }
+                        default -> null;
+                    };
+                    if (a == null) return;
+                    if (a.getSegment() == Segment.THIS || a == POINTER_0) usesThis.add(current[0]);
+                    if (a.getSegment() == Segment.THAT || a == POINTER_1) usesThat.add(current[0]);
+                });
+            }
+        }
+
+        CallGraph graph = CallGraph.build(modules);
+        Set<String> watchedThis = calledBelow(graph, usesThis);
+        Set<String> watchedThat = calledBelow(graph, usesThat);
+        for (String fn : graph.getFunctions()) {
+            writes.put(fn, SavedPointers.of(writesThis.contains(fn), writesThat.contains(fn)));
+            saves.put(fn, SavedPointers.of(writesThis.contains(fn) && watchedThis.contains(fn), writesThat.contains(fn) && watchedThat.contains(fn)));
+        }
+    }
+
+    //Every function reachable through at least one call from one of users
+    private static Set<String> calledBelow(CallGraph graph, Set<String> users) {
+        Set<String> reached = new HashSet<>();
+        Deque<String> todo = new ArrayDeque<>();
+        for (String user : users) todo.addAll(graph.getCallees(user));
+        while (!todo.isEmpty()) {
+            String fn = todo.removeFirst();
+            if (graph.isDefined(fn) && reached.add(fn)) todo.addAll(graph.getCallees(fn));
+        }
+        return reached;
+    }
+
+    //Pointers each function repoints itself, which is what it saves when nothing is known about its callers
+    public Map<String, SavedPointers> getWrites() {
+        return Collections.unmodifiableMap(writes);
+    }
+
+    //Pointers each function has to save because a function that may be below it on the stack looks at them
+    public Map<String, SavedPointers> getSaves() {
+        return Collections.unmodifiableMap(saves);
+    }
+
+    public String signature() {
+        return saves.toString();
+    }
+}
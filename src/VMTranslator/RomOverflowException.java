@@ -0,0 +1,20 @@
+package VMTranslator;
+
+/**
+ * Thrown by HackAssembler when a program needs more words than the Hack ROM holds, so callers can tell a
+ * program that is too large from a translator failure
+ */
+public class RomOverflowException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    private final int words;
+
+    public RomOverflowException(int words, int romSize) {
+        super("Program needs " + words + " ROM words but the Hack ROM holds " + romSize);
+        this.words = words;
+    }
+
+    public int getWords() {
+        return words;
+    }
+}
@@ -3,24 +3,258 @@ package VMTranslator;
 import VMTranslator.vmcode.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 //Basic: 47 lines
 public class VMTranslator {
+    private static final String BOOTSTRAP_MODULE = "(bootstrap)";
+    private static final String ENTRY_POINT = "Sys.init";
+    //A call through a stub is "@ret D=A @stub 0;JMP", 4 words against 12 inline, and runs the 14-word stub
+    private static final int STUB_SITE_WORDS_SAVED = 8;
+    private static final int STUB_EXTRA_CYCLES = 6;
+    private static final int MIN_STUB_SITES = 2;
+
+    public enum OutputFormat {
+        ASM, //Annotated Hack assembly text
+        HACK, //Machine code as lines of 16 binary digits
+        BINARY //Raw big-endian 16-bit ROM image
+    }
+
     private final File[] vmFiles;
     private final File outputFile;
+    private final int workers;
+    private final OutputFormat format;
+    private BuildCache cache; //Null when every file should be decoded again
+    private File costReportFile; //Null when no cost report is wanted
+    private CostReport costs;
+    private boolean keepUnused; //Emit functions that Sys.init can never reach
+    private File droppedReportFile; //Null when no list of dropped functions is wanted
+    private int inlineSize = Inliner.DEFAULT_MAX_SIZE; //Largest body, in expression nodes, substituted into callers; 0 turns inlining off
+    private String inlineSignature = "";
+    private boolean propagateConstants = true;
+    private boolean peephole = true;
+    private boolean strengthReduction = true;
+    private boolean staticFrames = true;
+    private String framesSignature = "";
+    private boolean lightFrames = true;
+    private String pointersSignature = "";
+    private boolean sharedCalls; //Route repeated calls through one stub per (callee, arguments)
+    private File stubReportFile; //Null when no report on the call stubs is wanted
+    private boolean tailCalls = true;
+    private boolean fusedCompares = true;
+    private String argumentsSignature = "";
 
     public VMTranslator(File[] vmFiles, File outputFile) {
+        this(vmFiles, outputFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    public VMTranslator(File[] vmFiles, File outputFile, int workers) {
+        this(vmFiles, outputFile, workers, OutputFormat.ASM);
+    }
+
+    public VMTranslator(File[] vmFiles, File outputFile, int workers, OutputFormat format) {
         this.vmFiles = vmFiles;
         this.outputFile = outputFile;
+        this.workers = Math.max(1, workers);
+        this.format = format;
+    }
+
+    //Reuse the decoded assembly of every file whose source has not changed since it was cached
+    public void setCache(BuildCache cache) {
+        this.cache = cache;
+    }
+
+    //Write the per-function ROM and cycle estimates to file after translating
+    public void setCostReport(File file) {
+        this.costReportFile = file;
+    }
+
+    //Emit every function, even those that no chain of calls from Sys.init reaches
+    public void setKeepUnused(boolean keepUnused) {
+        this.keepUnused = keepUnused;
+    }
+
+    //Write the functions left out as unreachable, with the ROM words each would have taken, to file
+    public void setDroppedReport(File file) {
+        this.droppedReportFile = file;
+    }
+
+    public void setInlineSize(int nodes) {
+        this.inlineSize = nodes;
+    }
+
+    //Replace reads of locals, arguments and statics that hold a known constant, and fold what that makes constant
+    public void setPropagateConstants(boolean propagateConstants) {
+        this.propagateConstants = propagateConstants;
+    }
+
+    //Clean up redundant sequences where the code of neighbouring instructions meets; the cost report still
+    //describes the code as decoded, before this pass
+    public void setPeephole(boolean peephole) {
+        this.peephole = peephole;
+    }
+
+    //Replace Math.multiply and Math.divide by a constant with in-line shifts and adds or a shared shift routine
+    public void setStrengthReduction(boolean strengthReduction) {
+        this.strengthReduction = strengthReduction;
+    }
+
+    //Give functions that are never active twice at once a fixed block of RAM instead of a stack frame
+    public void setStaticFrames(boolean staticFrames) {
+        this.staticFrames = staticFrames;
+    }
+
+    //Save and restore THIS and THAT in a callee's frame only when a function below it on the stack looks at them
+    public void setLightFrames(boolean lightFrames) {
+        this.lightFrames = lightFrames;
+    }
+
+    //Trade cycles for ROM: every call to a function with the same number of arguments, when there are at least two,
+    //jumps to one shared stub that sets up the frame
+    public void setSharedCalls(boolean sharedCalls) {
+        this.sharedCalls = sharedCalls;
+    }
+
+    //Write each call stub with its call sites and the ROM words it saves to file
+    public void setStubReport(File file) {
+        this.stubReportFile = file;
+    }
+
+    //Let "return f(...)" reuse the current stack frame when f's frame has the same shape
+    public void setTailCalls(boolean tailCalls) {
+        this.tailCalls = tailCalls;
+    }
+
+    //Branch on conditions built from compares, not, and/or without materializing their value
+    public void setFusedCompares(boolean fusedCompares) {
+        this.fusedCompares = fusedCompares;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int workers = Runtime.getRuntime().availableProcessors();
+        boolean useCache = true;
+        File report = null;
+        File costReport = null;
+        boolean keepUnused = false;
+        File droppedReport = null;
+        int inlineSize = Inliner.DEFAULT_MAX_SIZE;
+        boolean propagateConstants = true;
+        boolean peephole = true;
+        boolean strengthReduction = true;
+        boolean staticFrames = true;
+        boolean lightFrames = true;
+        boolean sharedCalls = false;
+        boolean tailCalls = true;
+        boolean fusedCompares = true;
+        File stubReport = null;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                workers = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--no-cache")) {
+                useCache = false;
+            } else if (args[i].equals("--report") && i + 1 < args.length) {
+                report = new File(args[++i]);
+            } else if (args[i].equals("--costs") && i + 1 < args.length) {
+                costReport = new File(args[++i]);
+            } else if (args[i].equals("--keep-unused")) {
+                keepUnused = true;
+            } else if (args[i].equals("--inline-size") && i + 1 < args.length) {
+                inlineSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--no-constants")) {
+                propagateConstants = false;
+            } else if (args[i].equals("--no-peephole")) {
+                peephole = false;
+            } else if (args[i].equals("--no-strength-reduction")) {
+                strengthReduction = false;
+            } else if (args[i].equals("--no-static-frames")) {
+                staticFrames = false;
+            } else if (args[i].equals("--no-light-frames")) {
+                lightFrames = false;
+            } else if (args[i].equals("--no-tail-calls")) {
+                tailCalls = false;
+            } else if (args[i].equals("--no-fused-compares")) {
+                fusedCompares = false;
+            } else if (args[i].equals("--shared-calls")) {
+                sharedCalls = true;
+            } else if (args[i].equals("--stub-report") && i + 1 < args.length) {
+                stubReport = new File(args[++i]);
+            } else if (args[i].equals("--dropped") && i + 1 < args.length) {
+                droppedReport = new File(args[++i]);
+            } else {
+                paths.add(args[i]);
+            }
+        }
+        if (paths.size() != 2) {
+            System.err.println("Usage: java VMTranslator.VMTranslator [-j workers] [--no-cache] [--report metrics.json] [--costs costs.txt] [--keep-unused] [--inline-size nodes] [--no-constants] [--no-peephole] [--no-strength-reduction] [--no-static-frames] [--no-light-frames] [--no-tail-calls] [--no-fused-compares] [--shared-calls] [--stub-report stubs.txt] [--dropped dropped.txt] <file.vm | directory> <output.asm | output.hack | output.bin>");
+            System.exit(1);
+        }
+
+        File input = new File(paths.get(0));
+        File[] vmFiles = input.isDirectory() ? input.listFiles((d, n) -> n.endsWith(".vm")) : new File[]{input};
+        if (vmFiles == null || vmFiles.length == 0) {
+            System.err.println("No .vm files found.");
+            System.exit(1);
+        }
+        Arrays.sort(vmFiles);
+
+        File output = new File(paths.get(1));
+        OutputFormat format = output.getName().endsWith(".hack") ? OutputFormat.HACK : output.getName().endsWith(".bin") ? OutputFormat.BINARY : OutputFormat.ASM;
+        VMTranslator translator = new VMTranslator(vmFiles, output, workers, format);
+        if (useCache) translator.setCache(new BuildCache(new File(output.getAbsoluteFile().getParentFile(), ".vmcache").toPath()));
+        if (costReport != null) translator.setCostReport(costReport);
+        translator.setKeepUnused(keepUnused);
+        translator.setInlineSize(inlineSize);
+        translator.setPropagateConstants(propagateConstants);
+        translator.setPeephole(peephole);
+        translator.setStrengthReduction(strengthReduction);
+        translator.setStaticFrames(staticFrames);
+        translator.setLightFrames(lightFrames);
+        translator.setSharedCalls(sharedCalls);
+        translator.setTailCalls(tailCalls);
+        translator.setFusedCompares(fusedCompares);
+        if (stubReport != null) translator.setStubReport(stubReport);
+        if (droppedReport != null) translator.setDroppedReport(droppedReport);
+        if (report != null) Metrics.enable();
+        translator.translate();
+        if (report != null) Metrics.writeReport(report);
     }
 
     public void translate() throws Exception {
-        int machineLine = 0;
-        List<String> bootstrapCode  = new ArrayList<>(List.of("//Set 256 to be the start of the stack", "@256", "D=A", "@SP", "M=D",
+        try (Metrics.Phase phase = Metrics.phase("asm.translate", outputFile.getName())) {
+            if (format == OutputFormat.ASM) {
+                // The writer numbers every real instruction as it streams it to the output file
+                AsmWriter out = new AsmWriter(Files.newBufferedWriter(outputFile.toPath()));
+                try (out) {
+                    emitProgram(out);
+                }
+                phase.items("asm.machineLines", out.getMachineLine());
+                return;
+            }
+
+            // Assemble in memory, skipping the VM comments and line annotations entirely
+            HackAssembler assembler = new HackAssembler();
+            emitProgram(assembler);
+            if (format == OutputFormat.HACK) {
+                assembler.writeHack(outputFile);
+            } else {
+                assembler.writeBinary(outputFile);
+            }
+            assembler.writeSymbolMap(siblingFile(".sym"));
+            phase.items("asm.machineLines", assembler.getRomSize());
+        }
+    }
+
+    private void emitProgram(AsmSink out) throws Exception {
+        List<String> bootstrapCode = List.of("//Set 256 to be the start of the stack", "@256", "D=A", "@SP", "M=D",
 
                 "//Set up the comparison ops subroutines", "@SKIP", "0;JMP",
 
@@ -46,59 +280,414 @@ public class VMTranslator {
 
                 "(RETURN)", "@LCL", "D=M", "@14", "M=D", "@5", "A=D-A", "D=M", "@15", "M=D", "@SP", "AM=M-1", "D=M", "@ARG", "A=M", "M=D", "@ARG", "D=M", "@SP", "M=D+1", "@14", "A=M-1", "D=M", "@THAT", "M=D", "@14", "A=M-1", "A=A-1", "D=M", "@THIS", "M=D", "@14", "A=M-1", "A=A-1", "A=A-1", "D=M", "@ARG", "M=D", "@14", "A=M-1", "A=A-1", "A=A-1", "A=A-1", "D=M", "@LCL", "M=D", "@15", "A=M", "0;JMP",
 
-                "(SKIPo)"));
-        List<String> allAssemblyLines = new ArrayList<>();
+                "(SKIPo)");
 
-        VMParser.currentFunction = "global";
-        CallInstruction c = new CallInstruction("Sys.init", 0, new HashMap<>());
-        bootstrapCode.addAll(c.decode());
-        // Add bootstrap with line number annotations
-        for (String line : bootstrapCode) {
-            if (isRealInstruction(line)) {
-                allAssemblyLines.add(line + " // " + machineLine++);
-            } else {
-                allAssemblyLines.add(line);
-            }
-        }
-        // Process each .vm file
-        for (File vmFile : vmFiles) {
-            List<String> lines = Files.readAllLines(vmFile.toPath());
-            VMParser parser = new VMParser(lines, getModuleName(vmFile));
-            List<VMinstruction> instructions = parser.parse();
-
-            for (VMinstruction inst : instructions) {
-                // Add the VM comment
-                String comment = "//" + inst.toString().replaceAll("(?m)^", "//");
-                allAssemblyLines.add(comment);
-
-                List<String> assembly = inst.decode();
-                if (assembly != null) {
-                    for (String line : assembly) {
-                        if (isRealInstruction(line)) {
-                            allAssemblyLines.add(line + " // " + machineLine++);
-                        } else {
-                            allAssemblyLines.add(line);
-                        }
-                    }
+        // Parse every .vm file concurrently; the whole-program passes need all of them before anything is decoded
+        List<ParsedModule> modules = inlineLeafCalls(inParallel(Arrays.asList(vmFiles), this::parseFile));
+        if (propagateConstants) modules = inParallel(modules, this::propagateConstants);
+        if (strengthReduction) modules = inParallel(modules, this::reduceStrength);
+        Set<String> live = liveFunctions(modules);
+        PointerAnalysis pointers = analysePointers(modules, live);
+        Map<String, SavedPointers> saved = pointers == null || !lightFrames ? Map.of() : pointers.getSaves();
+        Map<String, StaticFrame> frames = allocateFrames(modules, live, pointers == null ? Map.of() : lightFrames ? saved : pointers.getWrites());
+        Map<String, CallStub> stubs = sharedCalls ? chooseCallStubs(modules, live, frames) : Map.of();
+        Map<String, Integer> argumentCounts = argumentCounts(modules, live);
+        for (ParsedModule m : modules) {
+            m.ctx.setArgumentCounts(argumentCounts);
+            m.ctx.setStaticFrames(frames);
+            m.ctx.setSavedPointers(saved);
+            m.ctx.setCallStubs(stubs.keySet());
+            m.ctx.setFusedCompares(fusedCompares);
+        }
+        TranslationContext bootstrapContext = new TranslationContext("global");
+        bootstrapContext.setStaticFrames(frames);
+        bootstrapContext.setSavedPointers(saved);
+        bootstrapContext.enterFunction("global");
+
+        // Shared CALL and RETURN routines for the stack frames that save less than both pointers, then the call stubs
+        List<String> routines = new ArrayList<>();
+        Set<SavedPointers> lighter = EnumSet.noneOf(SavedPointers.class);
+        saved.forEach((fn, s) -> {
+            if (s != SavedPointers.BOTH && !frames.containsKey(fn) && (live == null || live.contains(fn))) lighter.add(s);
+        });
+        for (SavedPointers s : lighter) routines.addAll(frameRoutines(s));
+        for (int shift : divideShifts(modules, live)) routines.addAll(DivideByPowerOfTwo.routine(shift));
+        for (CallStub stub : stubs.values()) {
+            AsmBuffer asm = new AsmBuffer();
+            stub.call.decodeStub(asm, bootstrapContext);
+            routines.addAll(asm.toList());
+        }
+        if (!routines.isEmpty()) {
+            List<String> code = new ArrayList<>(bootstrapCode.subList(0, bootstrapCode.size() - 1));
+            code.addAll(routines);
+            code.add(bootstrapCode.getLast());
+            bootstrapCode = code;
+        }
+        if (stubReportFile != null) writeStubReport(stubs);
+
+        out.addAll(bootstrapCode);
+        CallInstruction c = new CallInstruction(ENTRY_POINT, 0);
+        AsmBuffer entry = new AsmBuffer();
+        c.decode(entry, bootstrapContext);
+        entry.drainTo(out);
+
+        costs = costReportFile == null ? null : new CostReport(bootstrapCode);
+        if (costs != null) {
+            CostReport.Module module = costs.module(BOOTSTRAP_MODULE);
+            module.record(c, entry, 0);
+            costs.add(module);
+        }
+
+        Map<String, Map<String, Integer>> dropped = new ConcurrentHashMap<>(); //Module -> dropped function -> ROM words
+
+        // Decode each module concurrently into its own buffer; machine line numbers
+        // are only assigned while the buffers are streamed out in file order
+        for (AsmBuffer asm : inParallel(modules, m -> translateFile(m, live, dropped))) {
+            asm.drainTo(out);
+        }
+
+        List<String> moduleOrder = new ArrayList<>(List.of(BOOTSTRAP_MODULE));
+        for (ParsedModule m : modules) moduleOrder.add(m.name);
+        if (costs != null) costs.write(costReportFile, moduleOrder);
+        if (droppedReportFile != null) writeDroppedReport(moduleOrder, dropped);
+    }
+
+    private record ParsedModule(String name, String source, List<VMinstruction> instructions, TranslationContext ctx) {
+    }
+
+    private interface Task<T, R> {
+        R run(T item) throws Exception;
+    }
+
+    //Runs task over every item on the worker pool and returns the results in item order
+    private <T, R> List<R> inParallel(List<T> items, Task<T, R> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, Math.max(1, items.size())));
+        try {
+            List<Future<R>> pending = new ArrayList<>();
+            for (T item : items) {
+                pending.add(pool.submit(() -> task.run(item)));
+            }
+            List<R> results = new ArrayList<>();
+            for (Future<R> f : pending) {
+                results.add(f.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private ParsedModule parseFile(File vmFile) throws Exception {
+        String moduleName = getModuleName(vmFile);
+        try (Metrics.Phase phase = Metrics.phase("asm.parseFile", moduleName)) {
+            String source = Files.readString(vmFile.toPath());
+            phase.items("asm.sourceChars", source.length());
+            VMParser parser = new VMParser(source, moduleName);
+            return new ParsedModule(moduleName, source, parser.parse(), parser.getContext());
+        }
+    }
+
+    //Replaces calls to small leaf functions with their bodies; runs before reachability, so callees that are
+    //inlined everywhere get dropped
+    private List<ParsedModule> inlineLeafCalls(List<ParsedModule> modules) {
+        inlineSignature = "";
+        if (inlineSize <= 0) return modules;
+        try (Metrics.Phase phase = Metrics.phase("asm.inline", outputFile.getName())) {
+            Map<String, List<VMinstruction>> programs = new LinkedHashMap<>();
+            for (ParsedModule m : modules) programs.put(m.name, m.instructions);
+            Inliner inliner = new Inliner(programs, inlineSize);
+            inlineSignature = inliner.signature();
+
+            List<ParsedModule> result = new ArrayList<>();
+            int[] sites = {0};
+            for (ParsedModule m : modules) {
+                result.add(new ParsedModule(m.name, m.source, inliner.inline(m.name, m.instructions, sites), m.ctx));
+            }
+            phase.items("asm.inlinedCalls", sites[0]);
+            return result;
+        }
+    }
+
+    //Folds constants within each function; runs before reachability, so calls in branches that fold away
+    //no longer keep their callees alive
+    private ParsedModule propagateConstants(ParsedModule module) {
+        try (Metrics.Phase phase = Metrics.phase("asm.propagateConstants", module.name)) {
+            ConstantPropagator propagator = new ConstantPropagator();
+            List<VMinstruction> instructions = propagator.run(module.instructions);
+            phase.items("asm.constants.replacedReads", propagator.getReplacedReads());
+            Metrics.count("asm.constants.foldedBranches", propagator.getFoldedBranches());
+            Metrics.count("asm.constants.droppedInstructions", propagator.getDroppedInstructions());
+            return new ParsedModule(module.name, module.source, instructions, module.ctx);
+        }
+    }
+
+    //Replaces multiplies and divides by constants; runs before reachability, so Math.multiply and Math.divide are
+    //dropped when no call to them is left
+    private ParsedModule reduceStrength(ParsedModule module) {
+        try (Metrics.Phase phase = Metrics.phase("asm.strengthReduction", module.name)) {
+            StrengthReducer reducer = new StrengthReducer();
+            List<VMinstruction> instructions = reducer.run(module.instructions);
+            phase.items("asm.strength.multiplies", reducer.getMultiplies());
+            Metrics.count("asm.strength.divides", reducer.getDivides());
+            return new ParsedModule(module.name, module.source, instructions, module.ctx);
+        }
+    }
+
+    //Shifts of the divides left in live functions, each of which needs its DIV_POW2 routine
+    private static Set<Integer> divideShifts(List<ParsedModule> modules, Set<String> live) {
+        Set<Integer> shifts = new TreeSet<>();
+        for (ParsedModule m : modules) {
+            boolean emitted = false;
+            for (VMinstruction inst : m.instructions) {
+                if (inst instanceof FunctionInstruction f) emitted = live == null || live.contains(f.getFuncName());
+                if (!emitted) continue;
+                InstructionWalker.walk(inst, node -> {
+                    if (node instanceof DivideByPowerOfTwo d) shifts.add(d.getShift());
+                });
+            }
+        }
+        return shifts;
+    }
+
+    //Functions reachable from Sys.init, or null when every function is kept
+    private Set<String> liveFunctions(List<ParsedModule> modules) {
+        if (keepUnused) return null;
+        try (Metrics.Phase phase = Metrics.phase("asm.reachability", outputFile.getName())) {
+            List<List<VMinstruction>> programs = new ArrayList<>();
+            for (ParsedModule m : modules) programs.add(m.instructions);
+            CallGraph graph = CallGraph.build(programs);
+            // Without Sys.init the bootstrap call goes nowhere, e.g. when translating a single file, so keep everything
+            if (!graph.isDefined(ENTRY_POINT)) return null;
+            Set<String> live = graph.reachableFrom(ENTRY_POINT);
+            phase.items("asm.functionsDropped", graph.getFunctions().size() - live.size());
+            return live;
+        }
+    }
+
+    //A tail call reuses the caller's frame, so the caller's argument count has to be known from every call to it
+    private Map<String, Integer> argumentCounts(List<ParsedModule> modules, Set<String> live) {
+        argumentsSignature = "";
+        if (!tailCalls || live == null) return Map.of();
+        List<List<VMinstruction>> programs = new ArrayList<>();
+        for (ParsedModule m : modules) programs.add(m.instructions);
+        Map<String, Integer> counts = new TreeMap<>(CallGraph.build(programs).getArgumentCounts());
+        argumentsSignature = counts.toString();
+        return counts;
+    }
+
+    private record CallStub(CallInstruction call, int sites) {
+    }
+
+    //Stubs for every (callee, arguments) pair called from at least two sites, keyed by label; functions with static
+    //frames are left out, since a call to one is already short
+    private Map<String, CallStub> chooseCallStubs(List<ParsedModule> modules, Set<String> live, Map<String, StaticFrame> frames) {
+        try (Metrics.Phase phase = Metrics.phase("asm.callStubs", outputFile.getName())) {
+            Map<String, CallStub> sites = new TreeMap<>();
+            for (ParsedModule m : modules) {
+                boolean[] emitted = {false};
+                for (VMinstruction inst : m.instructions) {
+                    if (inst instanceof FunctionInstruction f) emitted[0] = live == null || live.contains(f.getFuncName());
+                    if (!emitted[0]) continue;
+                    InstructionWalker.walk(inst, node -> {
+                        if (!(node instanceof CallInstruction call) || frames.containsKey(call.getFunctionName())) return;
+                        sites.merge(CallInstruction.stubLabel(call.getFunctionName(), call.getArgs()), new CallStub(call, 1),
+                                (a, b) -> new CallStub(a.call, a.sites + b.sites));
+                    });
                 }
-                allAssemblyLines.add(""); // blank line between instructions
             }
+            sites.values().removeIf(stub -> stub.sites < MIN_STUB_SITES);
+            int shared = 0;
+            for (CallStub stub : sites.values()) shared += stub.sites;
+            phase.items("asm.callStubs.sites", shared);
+            Metrics.count("asm.callStubs", sites.size());
+            return sites;
+        }
+    }
+
+    private void writeStubReport(Map<String, CallStub> stubs) throws IOException {
+        int sites = 0, words = 0;
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(stubReportFile.toPath()))) {
+            out.printf("%-40s %8s %8s%n", "call stub", "sites", "words");
+            for (Map.Entry<String, CallStub> e : stubs.entrySet()) {
+                AsmBuffer asm = new AsmBuffer();
+                TranslationContext scratch = new TranslationContext("global");
+                e.getValue().call.decodeStub(asm, scratch);
+                int stubWords = 0;
+                for (int i = 0; i < asm.size(); i++) {
+                    if (AsmWriter.isRealInstruction(asm.get(i))) stubWords++;
+                }
+                int saved = e.getValue().sites * STUB_SITE_WORDS_SAVED - stubWords;
+                out.printf("%-40s %8d %8d%n", e.getKey(), e.getValue().sites, saved);
+                sites += e.getValue().sites;
+                words += saved;
+            }
+            out.println();
+            out.printf("%d stubs shared by %d call sites, %d ROM words saved; each call through a stub takes %d more cycles%n", stubs.size(), sites, words, STUB_EXTRA_CYCLES);
+        }
+    }
+
+    //(CALL) and (RETURN) for a frame that only holds the given pointers; BOTH gives the routines of the bootstrap code
+    private static List<String> frameRoutines(SavedPointers saved) {
+        List<String> registers = new ArrayList<>(List.of("LCL", "ARG"));
+        if (saved.savesThis()) registers.add("THIS");
+        if (saved.savesThat()) registers.add("THAT");
+
+        List<String> asm = new ArrayList<>(List.of("(" + saved.callRoutine() + ")", "@SP", "AM=M+1", "A=A-1", "M=D"));
+        for (String register : registers) asm.addAll(List.of("@" + register, "D=M", "@SP", "AM=M+1", "A=A-1", "M=D"));
+        asm.addAll(List.of("@14", "D=M", "@SP", "D=M-D", "@ARG", "M=D", "@SP", "D=M", "@LCL", "M=D", "@13", "A=M", "0;JMP"));
+
+        asm.addAll(List.of("(" + saved.returnRoutine() + ")", "@LCL", "D=M", "@14", "M=D", "@" + saved.frameWords(), "A=D-A", "D=M", "@15", "M=D",
+                "@SP", "AM=M-1", "D=M", "@ARG", "A=M", "M=D", "@ARG", "D=M", "@SP", "M=D+1"));
+        for (int k = registers.size() - 1; k >= 0; k--) {
+            asm.addAll(List.of("@14", "A=M-1"));
+            for (int step = registers.size() - 1; step > k; step--) asm.add("A=A-1");
+            asm.addAll(List.of("D=M", "@" + registers.get(k), "M=D"));
+        }
+        asm.addAll(List.of("@15", "A=M", "0;JMP"));
+        return asm;
+    }
+
+    //Like static frames, which pointers a function must keep needs every caller, so nothing is known without Sys.init
+    private PointerAnalysis analysePointers(List<ParsedModule> modules, Set<String> live) {
+        pointersSignature = "";
+        if (live == null || !lightFrames && !staticFrames) return null;
+        try (Metrics.Phase phase = Metrics.phase("asm.pointerAnalysis", outputFile.getName())) {
+            List<List<VMinstruction>> programs = new ArrayList<>();
+            for (ParsedModule m : modules) programs.add(m.instructions);
+            PointerAnalysis analysis = new PointerAnalysis(programs);
+            if (lightFrames) pointersSignature = analysis.signature();
+            int light = 0;
+            for (Map.Entry<String, SavedPointers> e : analysis.getSaves().entrySet()) {
+                if (e.getValue() != SavedPointers.BOTH && live.contains(e.getKey())) light++;
+            }
+            phase.items("asm.lightFrames", light);
+            return analysis;
+        }
+    }
 
-            //System.out.println(vmFile.getName() + "  " + instructions.size());
+    //Static frames need the whole call graph, so there are none without Sys.init or when every function is kept
+    private Map<String, StaticFrame> allocateFrames(List<ParsedModule> modules, Set<String> live, Map<String, SavedPointers> saves) {
+        framesSignature = "";
+        if (!staticFrames || live == null) return Map.of();
+        try (Metrics.Phase phase = Metrics.phase("asm.staticFrames", outputFile.getName())) {
+            Map<String, List<VMinstruction>> programs = new LinkedHashMap<>();
+            for (ParsedModule m : modules) programs.put(m.name, m.instructions);
+            FrameAllocator allocator = new FrameAllocator(programs, live, ENTRY_POINT, saves);
+            framesSignature = allocator.signature();
+            phase.items("asm.staticFrames.functions", allocator.getFrames().size());
+            Metrics.count("asm.staticFrames.words", allocator.getWords());
+            return allocator.getFrames();
         }
+    }
 
-        Files.write(outputFile.toPath(), allAssemblyLines);
+    private AsmBuffer translateFile(ParsedModule module, Set<String> live, Map<String, Map<String, Integer>> dropped) throws Exception {
+        try (Metrics.Phase phase = Metrics.phase("asm.translateFile", module.name)) {
+            // Besides its own source, a module's code only depends on the functions dropped from it
+            // and on the bodies that may have been inlined into it and the frames of the functions it defines and calls
+            List<String> deadHere = new ArrayList<>();
+            for (VMinstruction inst : module.instructions) {
+                if (inst instanceof FunctionInstruction f && live != null && !live.contains(f.getFuncName())) deadHere.add(f.getFuncName());
+            }
+            String options = (propagateConstants ? "c" : "") + (peephole ? "p" : "") + (strengthReduction ? "s" : "") + (fusedCompares ? "f" : "");
+            String key = cache == null ? null : BuildCache.hash(BuildCache.fingerprint(VMTranslator.class), options, format.name(), module.name, module.source, String.join(" ", deadHere), inlineSignature, framesSignature, pointersSignature, String.join(" ", module.ctx.getCallStubs()), argumentsSignature);
+            // Cost and dropped-function reports need every instruction decoded, so they bypass cache reads
+            String cached = key == null || costs != null || droppedReportFile != null ? null : cache.get(module.name, key);
+            if (cached != null) {
+                phase.items("cache.asm.reused", 1);
+                return AsmBuffer.deserialize(cached);
+            }
+
+            AsmBuffer asm = decodeFile(module, live, dropped);
+            if (peephole) {
+                PeepholeOptimizer optimizer = new PeepholeOptimizer();
+                asm = optimizer.optimize(asm);
+                optimizer.getHits().forEach((rule, hits) -> Metrics.count("peephole." + rule, hits));
+            }
+            if (key != null) cache.put(module.name, key, asm.serialize());
+            phase.items("asm.lines", asm.size());
+            return asm;
+        }
     }
 
-    private String getModuleName(File file) {
-        String name = file.getName();
-        return name.substring(0, name.lastIndexOf('.'));
+    private AsmBuffer decodeFile(ParsedModule module, Set<String> live, Map<String, Map<String, Integer>> dropped) throws Exception {
+        TranslationContext ctx = module.ctx;
+
+        boolean text = format == OutputFormat.ASM;
+        CostReport.Module costModule = costs == null ? null : costs.module(module.name);
+        AsmBuffer asm = new AsmBuffer();
+        Map<String, Integer> droppedHere = new LinkedHashMap<>();
+        String deadName = null; //Unreachable function being skipped, if any
+        List<VMinstruction> deadBody = new ArrayList<>();
+        for (VMinstruction inst : module.instructions) {
+            if (inst instanceof FunctionInstruction f) {
+                if (deadName != null) droppedHere.put(deadName, deadWords(module, deadBody));
+                deadName = live == null || live.contains(f.getFuncName()) ? null : f.getFuncName();
+                deadBody = new ArrayList<>();
+            }
+            if (deadName != null) {
+                deadBody.add(inst);
+                continue;
+            }
+
+            // Add the VM comment
+            if (text) asm.add("//" + inst.toString().replaceAll("(?m)^", "//"));
+
+            if (inst instanceof ReturnInstruction r && r.isTailCall(ctx)) Metrics.count("asm.tailCalls", 1);
+            int from = asm.size();
+            inst.decode(asm, ctx);
+            if (costModule != null) costModule.record(inst, asm, from);
+            if (text) asm.add(""); // blank line between instructions
+        }
+        if (deadName != null) droppedHere.put(deadName, deadWords(module, deadBody));
+
+        if (costModule != null) costs.add(costModule);
+        if (!droppedHere.isEmpty()) dropped.put(module.name, droppedHere);
+        return asm;
+    }
+
+    //ROM words an unreachable function would have taken; only worked out when the dropped report asks for it
+    private int deadWords(ParsedModule module, List<VMinstruction> function) throws Exception {
+        if (droppedReportFile == null) return 0;
+        // A separate context, so the labels of the emitted code do not depend on whether a report was asked for
+        TranslationContext scratch = new TranslationContext(module.name);
+        AsmBuffer asm = new AsmBuffer();
+        for (VMinstruction inst : function) inst.decode(asm, scratch);
+        int words = 0;
+        for (int i = 0; i < asm.size(); i++) {
+            if (AsmWriter.isRealInstruction(asm.get(i))) words++;
+        }
+        return words;
     }
 
-    private boolean isRealInstruction(String line) {
-        line = line.trim();
-        return !line.isEmpty() && !line.startsWith("//") && !line.startsWith("(");
+    private void writeDroppedReport(List<String> moduleOrder, Map<String, Map<String, Integer>> dropped) throws IOException {
+        int functions = 0, words = 0;
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(droppedReportFile.toPath()))) {
+            out.printf("%-40s %8s%n", "dropped function", "words");
+            for (String module : moduleOrder) {
+                for (Map.Entry<String, Integer> e : dropped.getOrDefault(module, Map.of()).entrySet()) {
+                    out.printf("%-40s %8d%n", e.getKey(), e.getValue());
+                    functions++;
+                    words += e.getValue();
+                }
+            }
+            out.println();
+            out.printf("%d functions unreachable from %s, %d ROM words saved%n", functions, ENTRY_POINT, words);
+        }
+    }
 
+    //The output file with its extension replaced, e.g. Prog.hack -> Prog.sym
+    private File siblingFile(String extension) {
+        String name = outputFile.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(outputFile.getAbsoluteFile().getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + extension);
+    }
+
+    private String getModuleName(File file) {
+        String name = file.getName();
+        return name.substring(0, name.lastIndexOf('.'));
     }
 
 }
@@ -2,45 +2,91 @@ package VMTranslator.vmcode;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An interned (segment, index) pair. Instances are shared, so they can be compared with ==,
+ * and the assembly that resolves them is built once and reused as an immutable list.
+ */
+public final class Address {
+    private static final int SMALL_INDICES = 256;
+    private static final Address[][] SMALL = new Address[Segment.all().length][SMALL_INDICES];
+    private static final ConcurrentHashMap<Integer, Address> LARGE = new ConcurrentHashMap<>();
+
+    static {
+        for (Segment s : Segment.all()) {
+            for (short i = 0; i < SMALL_INDICES; i++) {
+                SMALL[s.ordinal()][i] = new Address(s, i);
+            }
+        }
+    }
 
-public class Address {
-    private final String segment;
+    private final Segment segment;
     private final short index;
 
-    public Address(String segment, short index) {
+    //Cached sequences; null for static, whose symbol depends on the module being translated
+    private final List<String> toA;
+    private final List<String> toD;
+    private final List<String> valueInD;
+
+    private Address(Segment segment, short index) {
         this.segment = segment;
         this.index = index;
+        if (segment == Segment.STATIC) {
+            toA = toD = valueInD = null;
+        } else {
+            toA = List.copyOf(buildResolve("A", null));
+            toD = List.copyOf(buildResolve("D", null));
+            valueInD = List.copyOf(buildSetDreg(null));
+        }
     }
 
-    private String getShortSegmentName() {
+    public static Address of(Segment segment, short index) {
+        if (index >= 0 && index < SMALL_INDICES) {
+            return SMALL[segment.ordinal()][index];
+        }
+        return LARGE.computeIfAbsent((segment.ordinal() << 16) | (index & 0xFFFF), k -> new Address(segment, index));
+    }
 
-        return switch (segment) {
-            case "local" -> "LCL";
-            case "argument" -> "ARG";
-            case "this" -> "THIS";
-            case "that" -> "THAT";
-            default -> segment;
-        };
+    public static Address of(String segment, short index) {
+        return of(Segment.of(segment), index);
     }
 
 
     //Sets either the M register to the value or the D register to the address
     //targetReg is either A or D
     //Overwrites the D reg if the segment is a pointer type and index is large
-    public List<String> resolveAddressTo(String targetReg) {
+    public List<String> resolveAddressTo(String targetReg, TranslationContext ctx) {
+        Integer fixed = ctx.fixedAddress(this);
+        if (fixed != null) return targetReg.equals("A") ? List.of("@" + fixed) : List.of("@" + fixed, "D=A");
+        if (segment != Segment.STATIC) {
+            if (targetReg.equals("A")) return toA;
+            if (targetReg.equals("D")) return toD;
+        }
+        return buildResolve(targetReg, ctx);
+    }
+
+    //Sets the D reg to the value
+    public List<String> setDreg(TranslationContext ctx) {
+        Integer fixed = ctx.fixedAddress(this);
+        if (fixed != null) return List.of("@" + fixed, "D=M");
+        return valueInD != null ? valueInD : buildSetDreg(ctx);
+    }
+
+    private List<String> buildResolve(String targetReg, TranslationContext ctx) {
         List<String> asm = new ArrayList<>();
 
         switch (segment) {
-            case "constant" -> asm.add("@" + index);
+            case CONSTANT -> asm.add("@" + index);
+
+            case STATIC -> asm.add("@" + ctx.getModuleName() + "." + index);
 
-            case "static" -> asm.add("@" + VMParser.moduleName + "." + index);
+            case TEMP -> asm.add("@" + (5 + index));
 
-            case "temp", "pointer" -> asm.add("@" + (segment.equals("temp") ? 5 + index : 3 + index));
+            case POINTER -> asm.add("@" + (3 + index));
 
-            case "local", "argument", "this", "that" -> {
-                asm.add("@" + getShortSegmentName());
+            case LOCAL, ARGUMENT, THIS, THAT -> {
+                asm.add("@" + segment.baseSymbol());
                 if (index == 0) {
                     asm.add(targetReg + "=M");
                 } else if (index < 4) {
@@ -55,16 +101,14 @@ public class Address {
                     asm.add(targetReg + "=D+A");
                 }
             }
-            default -> throw new IllegalArgumentException("Unknown segment: " + segment);
         }
         return asm;
     }
 
-    //Sets the D reg to the value
-    public List<String> setDreg() {
+    private List<String> buildSetDreg(TranslationContext ctx) {
         List<String> asm = new ArrayList<>();
 
-        if (segment.equals("constant")) {
+        if (segment == Segment.CONSTANT) {
             if (index == 0 || index == 1 || index == -1) {
                 asm.add("D=" + index);
             } else {
@@ -78,7 +122,7 @@ public class Address {
                 }
             }
         } else {
-            asm.addAll(resolveAddressTo("A"));
+            asm.addAll(buildResolve("A", ctx));
             asm.add("D=M");
         }
 
@@ -86,30 +130,29 @@ public class Address {
     }
 
     public String lookUpAddress() {
-        if (segment.equals("pointer") && index == (short) 0) {
+        if (segment == Segment.POINTER && index == (short) 0) {
             return "this";
         }
         return switch (segment) {
-            case "constant" -> String.valueOf(index);
-            case "static", "argument", "local" -> segment + "_" + index;
-            case "this" -> "field_" + index;
+            case CONSTANT -> String.valueOf(index);
+            case STATIC, ARGUMENT, LOCAL -> segment.vmName() + "_" + index;
+            case THIS -> "field_" + index;
             default -> ""; // fallback
         };
     }
 
     public boolean isTrivial() {
-        return switch (segment) {
-            case "local", "argument", "this", "that" -> index < 4;
-            default -> true;
-        };
+        return !segment.isPointer() || index < 4;
     }
 
-    public boolean isReachable(Address a) {
-        // Pointer-based segments
-        Set<String> pointerSegments = Set.of("local", "argument", "this", "that");
+    //Also trivial when the current function's static frame gives it a fixed address
+    public boolean isTrivial(TranslationContext ctx) {
+        return isTrivial() || ctx.fixedAddress(this) != null;
+    }
 
-        // Check if both are in a pointer segment
-        if (pointerSegments.contains(this.segment) && this.segment.equals(a.segment)) {
+    public boolean isReachable(Address a) {
+        // Check if both are in the same pointer segment
+        if (segment.isPointer() && segment == a.segment) {
             return Math.abs(this.index - a.index) < 4;
         }
 
@@ -118,22 +161,19 @@ public class Address {
 
 
     public boolean isConstant() {
-        return segment.equals("constant");
+        return segment == Segment.CONSTANT;
     }
 
     public short getIndex() {
         return index;
     }
 
-    public String getSegment() {
+    public Segment getSegment() {
         return segment;
     }
 
     @Override
     public String toString() {
-        if ("static".equals(segment) && VMParser.moduleName != null) {
-            return VMParser.moduleName + "." + index;
-        }
         return segment + " " + index;
     }
 
@@ -141,11 +181,11 @@ public class Address {
     public boolean equals(Object obj) {
         if (this == obj) return true;
         if (!(obj instanceof Address other)) return false;
-        return segment.equals(other.segment) && index == other.index;
+        return segment == other.segment && index == other.index;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(segment, index);
+        return 31 * segment.ordinal() + index;
     }
 }
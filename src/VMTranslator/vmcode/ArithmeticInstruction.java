@@ -1,25 +1,20 @@
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * A primitive arithmetic / logical VM command.
  */
 public final class ArithmeticInstruction implements VMinstruction {
 
-    public static int counter;
     private final Op op;
 
 
     public ArithmeticInstruction(Op op) {
         this.op = op;
-        counter = 0;
     }
 
     @Override
-    public List<String> decode() {
-        return new ArrayList<>(op.emit(true));
+    public void decode(AsmSink asm, TranslationContext ctx) {
+        op.emit(asm, true, ctx);
     }
 
     public boolean isUnary() {
@@ -93,45 +88,46 @@ public final class ArithmeticInstruction implements VMinstruction {
         }
 
         /**
-         * assembly template for the whole stack sequence
+         * emits the assembly for the whole stack sequence
          */
-        List<String> emit(boolean alone) {
+        void emit(AsmSink asm, boolean alone, TranslationContext ctx) {
             //if alone, the final result on the stack, else in the D register.
             if (unary) {
                 if (alone) {
-                    return List.of("@SP", "A=M-1", onM().replace('D', 'M'));
+                    asm.addAll("@SP", "A=M-1", onM().replace('D', 'M'));
+                    return;
                 }
-                return List.of("@SP", "A=M-1", onM());
+                asm.addAll("@SP", "A=M-1", onM());
+                return;
             }
             if (isCompare()) {
                 //Make the subtraction and the label
-                List<String> ls = new ArrayList<>(List.of("@COMPARE_" + VMParser.currentFunction + "_" + rhs + counter, "D=A", "@13", "M=D", "@SP", "AM=M-1", "D=M", "A=A-1", "D=M-D"));
+                int counter = ctx.nextCompareId();
+                asm.addAll("@COMPARE_" + ctx.getCurrentFunction() + "_" + rhs + counter, "D=A", "@13", "M=D", "@SP", "AM=M-1", "D=M", "A=A-1", "D=M-D");
                 switch (rhs) {
                     case "lt":
-                        ls.addAll(List.of("@DO_LT", "0;JMP"));
+                        asm.addAll("@DO_LT", "0;JMP");
                         break;
                     case "eq":
-                        ls.addAll(List.of("@DO_EQ", "0;JMP"));
+                        asm.addAll("@DO_EQ", "0;JMP");
                         break;
                     case "gt":
-                        ls.addAll(List.of("@DO_GT", "0;JMP"));
+                        asm.addAll("@DO_GT", "0;JMP");
                         break;
                 }
-                ls.add("(COMPARE_" + VMParser.currentFunction + "_" + rhs + counter + ")");
-                counter++;
+                asm.add("(COMPARE_" + ctx.getCurrentFunction() + "_" + rhs + counter + ")");
                 if (alone) {
-                    ls.addAll(List.of("@SP", "A=M-1", "M=D"));
+                    asm.addAll("@SP", "A=M-1", "M=D");
                 }
-                return ls;
+                return;
             }
-            List<String> ls = new ArrayList<>(List.of("@SP", "AM=M-1", "D=M", "A=A-1"));
+            asm.addAll("@SP", "AM=M-1", "D=M", "A=A-1");
             if (alone) {
-                ls.add("M=" + rhs);
+                asm.add("M=" + rhs);
             }
             else{
-                ls.add("D=" + rhs);
+                asm.add("D=" + rhs);
             }
-            return ls;
         }
     }
 }
@@ -0,0 +1,69 @@
+package VMTranslator.vmcode;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growable in-memory AsmSink, used to decode a module before its lines are numbered and written out.
+ */
+public final class AsmBuffer implements AsmSink {
+    private String[] lines = new String[256];
+    private int size;
+
+    @Override
+    public void add(String line) {
+        if (size == lines.length) lines = Arrays.copyOf(lines, size * 2);
+        lines[size++] = line;
+    }
+
+    @Override
+    public String last() {
+        if (size == 0) throw new IllegalStateException("Nothing emitted yet");
+        return lines[size - 1];
+    }
+
+    @Override
+    public void replaceLast(String line) {
+        if (size == 0) throw new IllegalStateException("Nothing emitted yet");
+        lines[size - 1] = line;
+    }
+
+    @Override
+    public void removeLast() {
+        if (size == 0) throw new IllegalStateException("Nothing emitted yet");
+        lines[--size] = null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String get(int i) {
+        return lines[i];
+    }
+
+    public void drainTo(AsmSink out) {
+        for (int i = 0; i < size; i++) out.add(lines[i]);
+    }
+
+    public List<String> toList() {
+        return List.of(Arrays.copyOf(lines, size));
+    }
+
+    //Lines may themselves hold newlines (multi-line VM comments), so each one is terminated by a NUL instead
+    public String serialize() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) sb.append(lines[i]).append('\0');
+        return sb.toString();
+    }
+
+    public static AsmBuffer deserialize(String text) {
+        AsmBuffer asm = new AsmBuffer();
+        int start = 0;
+        for (int end = text.indexOf('\0'); end >= 0; end = text.indexOf('\0', start)) {
+            asm.add(text.substring(start, end));
+            start = end + 1;
+        }
+        return asm;
+    }
+}
@@ -0,0 +1,28 @@
+package VMTranslator.vmcode;
+
+import java.util.List;
+
+/**
+ * Destination for emitted Hack assembly. Instructions append straight into the sink rather than
+ * building and returning their own lists. Only the most recently emitted line may be amended.
+ */
+public interface AsmSink {
+    List<String> PUSH_D = List.of("@SP", "AM=M+1", "A=A-1", "M=D");
+    List<String> POP_D = List.of("@SP", "AM=M-1", "D=M");
+
+    void add(String line);
+
+    default void addAll(List<String> lines) {
+        for (String line : lines) add(line);
+    }
+
+    default void addAll(String... lines) {
+        for (String line : lines) add(line);
+    }
+
+    String last();
+
+    void replaceLast(String line);
+
+    void removeLast();
+}
@@ -0,0 +1,74 @@
+package VMTranslator.vmcode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * AsmSink that streams straight to a Writer, annotating every real instruction with its
+ * machine line number. One line is held back so the last emitted line can still be amended.
+ */
+public final class AsmWriter implements AsmSink, Closeable {
+    private final Writer out;
+    private String pending;
+    private int machineLine;
+
+    public AsmWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void add(String line) {
+        flushPending();
+        pending = line;
+    }
+
+    @Override
+    public String last() {
+        if (pending == null) throw new IllegalStateException("Only the most recently emitted line can be amended");
+        return pending;
+    }
+
+    @Override
+    public void replaceLast(String line) {
+        last();
+        pending = line;
+    }
+
+    @Override
+    public void removeLast() {
+        last();
+        pending = null;
+    }
+
+    public int getMachineLine() {
+        return machineLine;
+    }
+
+    private void flushPending() {
+        if (pending == null) return;
+        try {
+            if (isRealInstruction(pending)) {
+                out.write(pending + " // " + machineLine++);
+            } else {
+                out.write(pending);
+            }
+            out.write(System.lineSeparator());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pending = null;
+    }
+
+    public static boolean isRealInstruction(String line) {
+        line = line.trim();
+        return !line.isEmpty() && !line.startsWith("//") && !line.startsWith("(");
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushPending();
+        out.close();
+    }
+}
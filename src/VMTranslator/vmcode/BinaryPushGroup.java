@@ -1,7 +1,5 @@
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Set;
 import java.util.Objects;
 
@@ -35,116 +33,127 @@ public class BinaryPushGroup extends PushGroup {
     }
 
     @Override
-    public List<String> decode() throws Exception {
-        List<String> asm = new ArrayList<>();
+    public void decode(AsmSink asm, TranslationContext ctx) throws Exception {
         if (isConstant()) {
             short constant = getConstant();
             if (Math.abs(constant) <= 1) {
-                asm.addAll(List.of("@SP", "AM=M+1", "A=A-1", "M=" + constant));
+                asm.addAll("@SP", "AM=M+1", "A=A-1", "M=" + constant);
             } else {
-                asm.addAll(setD());
-                asm.addAll(List.of("@SP", "AM=M+1", "A=A-1", "M=D"));
+                setD(asm, ctx);
+                asm.addAll(AsmSink.PUSH_D);
             }
+            return;
         }
         if (right.isConstant() || left.isConstant()) {
             int constant = right.isConstant() ? right.getConstant() : left.getConstant();
             PushGroup other = right.isConstant() ? left : right;
             //Handle M+1 or M-1 optimizations
             if ((constant == 1 || constant == 0) && other instanceof PushInstruction p && (op == ArithmeticInstruction.Op.ADD || (op == ArithmeticInstruction.Op.SUB && right.isConstant()))) {
-                asm.addAll(p.decode());
+                p.decode(asm, ctx);
                 if (Math.abs(constant) == 1) {
                     asm.removeLast();
                     asm.add("M=" + opToDOperation("1", false));
                 }
-                return asm;
+                return;
             }
         }
-        asm.addAll(setD());
-        asm.addAll(List.of("@SP", "AM=M+1", "A=A-1", "M=D"));
-
-        return asm;
+        setD(asm, ctx);
+        asm.addAll(AsmSink.PUSH_D);
     }
 
     @Override
-    List<String> setD() throws Exception {
+    void setD(AsmSink asm, TranslationContext ctx) throws Exception {
         if (isConstant()) {
-            PushInstruction p = new PushInstruction(new Address("constant", getConstant()));
-            return p.setD();
+            PushInstruction p = new PushInstruction(Address.of(Segment.CONSTANT, getConstant()));
+            p.setD(asm, ctx);
+            return;
         }
 
-        List<String> asm = new ArrayList<>();
-
         if (right.isConstant() && right.getConstant() == 0 && left instanceof BinaryPushGroup bpg && bpg.getOp().isCompare()){
-            asm.addAll(left.setD());
+            left.setD(asm, ctx);
             asm.add("D=!D");
-            return asm;
+            return;
         }
 
 
-        if (left.equals(right)) {
-            if (op.isCompare()) {
-                if (op == ArithmeticInstruction.Op.EQ) {
-                    asm.add("D=-1");
-                } else {
-                    asm.add("D=0");
-                }
+        //Comparing an expression with itself still goes through doCompare below
+        if (left.equals(right) && !op.isCompare()) {
+            left.setD(asm, ctx);
+            if (left instanceof PushInstruction) {
+                asm.add("D=" + opToDOperation("M", false));
             } else {
-                asm.addAll(left.setD());
-                asm.addAll(left instanceof PushInstruction ? List.of("D=" + opToDOperation("M", false)) : List.of("@R13", "M=D", "D=" + opToDOperation("M", false)));
-                return asm;
+                asm.addAll("@R13", "M=D", "D=" + opToDOperation("M", false));
             }
+            return;
         }
 
         if (right.isConstant() || left.isConstant()) {
             PushGroup constant = right.isConstant() ? right : left;
             PushGroup other = right.isConstant() ? left : right;
-            boolean isPI = other instanceof PushInstruction;
 
             //Handle special cases here
             if (Math.abs(constant.getConstant()) <= 1) {
-                if (op.isCompare()) return doCompare(op, left, right);
+                if (op.isCompare()) {
+                    doCompare(op, left, right, asm, ctx);
+                    return;
+                }
                 if (op == ArithmeticInstruction.Op.AND && constant.getConstant() == 0){
-                    return List.of("D=0");
+                    asm.add("D=0");
+                    return;
                 }
 
                 if (op == ArithmeticInstruction.Op.OR && constant.getConstant() == -1){
-                    return List.of("D=-1");
+                    asm.add("D=-1");
+                    return;
+                }
+                if (op == ArithmeticInstruction.Op.AND && constant.getConstant() == -1){
+                    other.setD(asm, ctx);
+                    return;
                 }
                 if ((op == ArithmeticInstruction.Op.SUB || op == ArithmeticInstruction.Op.OR) && constant.getConstant() == 0){
-                    return other.setD();
+                    other.setD(asm, ctx);
+                    //Handle the 0-D case here
+                    if (op == ArithmeticInstruction.Op.SUB && left.isConstant()) {
+                        asm.add("D=-D");
+                    }
+                    return;
                 }
 
-                if ((op == ArithmeticInstruction.Op.ADD && constant.getConstant() == 1) || (op == ArithmeticInstruction.Op.SUB && constant.getConstant() == -1))
-                    return combine(other.setD(), "D=D+1");
+                if ((op == ArithmeticInstruction.Op.ADD && constant.getConstant() == 1) || (op == ArithmeticInstruction.Op.SUB && constant.getConstant() == -1)) {
+                    other.setD(asm, ctx);
+                    //-1-D is !D
+                    asm.add(op == ArithmeticInstruction.Op.SUB && left.isConstant() ? "D=!D" : "D=D+1");
+                    return;
+                }
 
                 if ((op == ArithmeticInstruction.Op.ADD && constant.getConstant() == -1) || (op == ArithmeticInstruction.Op.SUB && constant.getConstant() == 1)) {
+                    other.setD(asm, ctx);
+                    asm.add("D=D-1");
                     //Handle the 1-D case here
                     if (left.isConstant()) {
-                        List<String> a = new ArrayList<>(combine(other.setD(), "D=D-1"));
-                        a.add("D=-D");
-                        return a;
+                        asm.add("D=-D");
                     }
-                    return combine(other.setD(), "D=D-1");
+                    return;
                 }
 
-                asm.addAll(other.setD());
-                asm.addAll(List.of("@" + Math.abs(constant.getConstant()), "D=" + opToDOperation("A", left.isConstant())));
-                return asm;
+                other.setD(asm, ctx);
+                asm.addAll("@" + Math.abs(constant.getConstant()), "D=" + opToDOperation("A", left.isConstant()));
+                return;
             } else if (op.isCompare()) {
-                return doCompare(op, left, right);
+                doCompare(op, left, right, asm, ctx);
+                return;
             } else if (constant.getConstant() >= 0) {
-                asm.addAll(other.setD());
-                asm.addAll(List.of("@" + Math.abs(constant.getConstant()), "D=" + opToDOperation("A", left.isConstant())));
-                return asm;
+                other.setD(asm, ctx);
+                asm.addAll("@" + Math.abs(constant.getConstant()), "D=" + opToDOperation("A", left.isConstant()));
+                return;
             }
         }
 
         if (left instanceof PushInstruction pLeft && right instanceof PushInstruction pRight) {
             Address a1 = pLeft.getAddress(), a2 = pRight.getAddress();
-            String seg = a1.getSegment();
-            Set<String> pointerSegments = Set.of("local", "argument", "this", "that");
+            Segment seg = a1.getSegment();
 
-            if (seg.equals(a2.getSegment()) && pointerSegments.contains(seg)) {
+            if (seg == a2.getSegment() && seg.isPointer()) {
                 int i1 = a1.getIndex(), i2 = a2.getIndex(), diff = i1 - i2;
                 int absDiff = Math.abs(diff);
 
@@ -153,7 +162,7 @@ public class BinaryPushGroup extends PushGroup {
 
                     PushInstruction high = leftIsMax ? pLeft : pRight;
 
-                    asm.addAll(high.setD()); // sets D = M and A aligned to high
+                    high.setD(asm, ctx); // sets D = M and A aligned to high
                     for (int i = 0; i < absDiff; i++)
                         asm.add("A=A-1");
 
@@ -166,41 +175,36 @@ public class BinaryPushGroup extends PushGroup {
                     };
 
                     asm.add("D=" + dOp);
-                    return asm;
+                    return;
                 }
             }
         }
 
 
-        if (op.isCompare()) return doCompare(op, left, right);
-        asm.addAll(left.decode());
-        asm.addAll(right.setD());
-        asm.addAll(List.of("@SP", "AM=M-1"));
+        if (op.isCompare()) {
+            doCompare(op, left, right, asm, ctx);
+            return;
+        }
+        left.decode(asm, ctx);
+        right.setD(asm, ctx);
+        asm.addAll("@SP", "AM=M-1");
         asm.add("D=" + opToDOperation("M", true));
-        return asm;
     }
 
 
-    private List<String> combine(List<String> base, String... extra) {
-        List<String> result = new ArrayList<>(base);
-        result.addAll(List.of(extra));
-        return result;
-    }
-
-    private List<String> doCompare(ArithmeticInstruction.Op op, PushGroup left, PushGroup right) throws Exception {
+    private void doCompare(ArithmeticInstruction.Op op, PushGroup left, PushGroup right, AsmSink asm, TranslationContext ctx) throws Exception {
         //For compare instructions, when jumping to the proper label, I need the return address on the stack, and the difference in D
-        String ret = VMParser.currentFunction + "." + op + "." + ArithmeticInstruction.counter++;
+        String ret = ctx.getCurrentFunction() + "." + op + "." + ctx.nextCompareId();
         //push the label on the stack
-        List<String> asm = new ArrayList<>(List.of("@" + ret, "D=A", "@SP", "AM=M+1", "A=A-1", "M=D"));
-        asm.addAll(new BinaryPushGroup(left, right, ArithmeticInstruction.Op.SUB).setD());
+        asm.addAll("@" + ret, "D=A", "@SP", "AM=M+1", "A=A-1", "M=D");
+        new BinaryPushGroup(left, right, ArithmeticInstruction.Op.SUB).setD(asm, ctx);
         asm.add(switch (op) {
             case LT -> "@DO_LT";
             case EQ -> "@DO_EQ";
             case GT -> "@DO_GT";
             default -> throw new IllegalStateException("Unexpected op " + op);
         });
-        asm.addAll(List.of("0;JMP", "(" + ret + ")"));
-        return asm;
+        asm.addAll("0;JMP", "(" + ret + ")");
     }
 
     private String opToDOperation(String operand, boolean flip) {
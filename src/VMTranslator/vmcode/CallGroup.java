@@ -1,6 +1,5 @@
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
@@ -19,19 +18,44 @@ public class CallGroup extends PushGroup {
     }
 
     @Override
-    public List<String> decode() throws Exception {
-        List<String> asm = new ArrayList<>();
-        asm.addAll(PushInstruction.handleMultiplePushes(pushes));
-        asm.addAll(call.decode());
-        return asm;
+    public void decode(AsmSink asm, TranslationContext ctx) throws Exception {
+        if (ctx.getStaticFrame(getFunctionName()) != null) {
+            setD(asm, ctx);
+            asm.addAll(AsmSink.PUSH_D);
+            return;
+        }
+        PushInstruction.handleMultiplePushes(pushes, asm, ctx);
+        call.decode(asm, ctx);
     }
 
 
     @Override
-    List<String> setD() throws Exception {
-        List<String> asm = new ArrayList<>(decode());
-        asm.addAll(List.of("@SP", "AM=M-1", "D=M"));
-        return asm;
+    void setD(AsmSink asm, TranslationContext ctx) throws Exception {
+        StaticFrame frame = ctx.getStaticFrame(getFunctionName());
+        if (frame == null) {
+            decode(asm, ctx);
+            asm.addAll(AsmSink.POP_D);
+            return;
+        }
+
+        // Arguments that make no calls cannot reach the callee's frame, so they go straight into it
+        boolean[] calls = {false};
+        for (PushGroup pg : pushes) InstructionWalker.walk(pg, node -> calls[0] |= node instanceof CallGroup);
+        if (calls[0] || pushes.size() != call.getArgs()) {
+            PushInstruction.handleMultiplePushes(pushes, asm, ctx);
+            call.decodeToD(asm, ctx);
+            return;
+        }
+        for (int i = 0; i < pushes.size(); i++) {
+            PushGroup arg = pushes.get(i);
+            if (arg.isConstant() && Math.abs(arg.getConstant()) <= 1) {
+                asm.addAll("@" + frame.argument(i), "M=" + arg.getConstant());
+            } else {
+                arg.setD(asm, ctx);
+                asm.addAll("@" + frame.argument(i), "M=D");
+            }
+        }
+        call.jumpToStatic(asm, ctx);
     }
 
 
@@ -1,19 +1,12 @@
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-
 public class CallInstruction implements VMinstruction {
     private final String calleeFunction;
     private final int numArgs;
-    private final Map<String, Integer> funcMapping;
 
-    public CallInstruction(String calleeFunction, int numArgs, Map<String, Integer> funcMapping) {
+    public CallInstruction(String calleeFunction, int numArgs) {
         this.calleeFunction = calleeFunction;
         this.numArgs = numArgs;
-        this.funcMapping = funcMapping;
     }
 
     public int getArgs() {
@@ -21,36 +14,79 @@ public class CallInstruction implements VMinstruction {
     }
 
     @Override
-    public List<String> decode() {
-        List<String> asm = new ArrayList<>();
+    public void decode(AsmSink asm, TranslationContext ctx) {
+        if (ctx.getStaticFrame(calleeFunction) != null) {
+            decodeToD(asm, ctx);
+            asm.addAll(AsmSink.PUSH_D);
+            return;
+        }
 
         //When I jump to the pre-defined CALL subroutine, I need the return address in the D register already, the function pointer in @13, and the number of arguments plus 5 in @14
 
-        int callCount = funcMapping.getOrDefault(VMParser.currentFunction, 0);
-        String returnLabel = VMParser.currentFunction + ".ret." + callCount;
-
-        funcMapping.put(VMParser.currentFunction, callCount + 1);
+        String returnLabel = ctx.nextReturnLabel();
+        SavedPointers saved = ctx.getSavedPointers(calleeFunction);
 
         asm.add("// call " + calleeFunction);
 
-        asm.add("@" + (numArgs + 5));
+        String stub = stubLabel(calleeFunction, numArgs);
+        if (ctx.hasCallStub(stub)) {
+            asm.addAll("@" + returnLabel, "D=A", "@" + stub, "0;JMP");
+            asm.add("(" + returnLabel + ")");
+            return;
+        }
+
+        frameSetup(saved, asm);
+
+        asm.add("@" + returnLabel);
+        asm.add("D=A");
+        asm.add("@" + saved.callRoutine());
+        asm.add("0;JMP");
+
+        asm.add("(" + returnLabel + ")");
+    }
+
+    public static String stubLabel(String calleeFunction, int numArgs) {
+        return "STUB." + calleeFunction + "." + numArgs;
+    }
+
+    //Shared by every call to this function with this many arguments: everything after loading the return address
+    //into D, which is kept in @15 while the frame size and the function pointer are set
+    public void decodeStub(AsmSink asm, TranslationContext ctx) {
+        SavedPointers saved = ctx.getSavedPointers(calleeFunction);
+        asm.add("(" + stubLabel(calleeFunction, numArgs) + ")");
+        asm.addAll("@15", "M=D");
+        frameSetup(saved, asm);
+        asm.addAll("@15", "D=M", "@" + saved.callRoutine(), "0;JMP");
+    }
+
+    private void frameSetup(SavedPointers saved, AsmSink asm) {
+        asm.add("@" + (numArgs + saved.frameWords()));
         asm.add("D=A");
         asm.add("@14");
-        asm.add("M=D"); //Deposit this ARGS + 5 for later
+        asm.add("M=D"); //Deposit this ARGS + 5 for later (fewer when the callee does not save THIS or THAT)
 
         asm.add("@" + calleeFunction);
         asm.add("D=A");
         asm.add("@13");
         asm.add("M=D");
+    }
 
-        asm.add("@" + returnLabel);
-        asm.add("D=A");
-        asm.add("@CALL");
-        asm.add("0;JMP");
+    //Calls a function with a static frame, moving the pushed arguments into it; the result is left in D
+    void decodeToD(AsmSink asm, TranslationContext ctx) {
+        StaticFrame frame = ctx.getStaticFrame(calleeFunction);
+        for (int i = numArgs - 1; i >= 0; i--) {
+            asm.addAll("@SP", "AM=M-1", "D=M", "@" + frame.argument(i), "M=D");
+        }
+        jumpToStatic(asm, ctx);
+    }
 
+    //Stores the return address and jumps; the arguments must already be in the frame
+    void jumpToStatic(AsmSink asm, TranslationContext ctx) {
+        StaticFrame frame = ctx.getStaticFrame(calleeFunction);
+        String returnLabel = ctx.nextReturnLabel();
+        asm.add("// call " + calleeFunction + " (static frame)");
+        asm.addAll("@" + returnLabel, "D=A", "@" + frame.returnSlot(), "M=D", "@" + calleeFunction, "0;JMP");
         asm.add("(" + returnLabel + ")");
-
-        return asm;
     }
 
     public String getFunctionName() {
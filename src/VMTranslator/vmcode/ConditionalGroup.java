@@ -1,8 +1,5 @@
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class ConditionalGroup implements VMinstruction {
     private PushGroup push;
     private IfGotoInstruction ifGoto;
@@ -21,17 +18,74 @@ public class ConditionalGroup implements VMinstruction {
     }
 
     @Override
-    public List<String> decode() throws Exception {
-        List<String> asm = new ArrayList<>();
-        if (push instanceof BinaryPushGroup bpg1 && bpg1.getLeft() instanceof BinaryPushGroup bpg2 && bpg1.getRight().isConstant() && bpg1.getRight().getConstant() == 0 && bpg1.getOp().equals(ArithmeticInstruction.Op.EQ) && bpg2.getRight().isConstant() && bpg2.getRight().getConstant() == 0 && bpg2.getOp().equals(ArithmeticInstruction.Op.EQ)){
-            asm.addAll(bpg2.setD());
-            asm.addAll(List.of("@" + ifGoto.getLabel(), "D;JEQ"));
+    public void decode(AsmSink asm, TranslationContext ctx) throws Exception {
+        String target = ctx.scopedLabel(ifGoto.getLabel());
+        if (ctx.hasFusedCompares() && isFusable(push)) {
+            branch(push, target, true, asm, ctx);
+            return;
         }
-        else {
-            asm.addAll(push.setD());
-            asm.addAll(List.of("@" + ifGoto.getLabel(), "D;JNE"));
+        push.setD(asm, ctx);
+        asm.addAll("@" + target, "D;JNE");
+    }
+
+    //True for conditions built only from compares, not, and/or and the constants true and false, so their value is
+    //always -1 or 0 and can be branched on without materializing it.
+    //The right side of an and/or may be skipped, so it must not make calls
+    private static boolean isFusable(PushGroup pg) {
+        return switch (pg) {
+            case BinaryPushGroup bpg when bpg.getOp().isCompare() -> true;
+            case BinaryPushGroup bpg when bpg.getOp() == ArithmeticInstruction.Op.AND || bpg.getOp() == ArithmeticInstruction.Op.OR ->
+                    isFusable(bpg.getLeft()) && isFusable(bpg.getRight()) && !makesCalls(bpg.getRight());
+            case UnaryPushGroup upg when upg.getOp() == ArithmeticInstruction.Op.NOT -> isFusable(upg.getInner());
+            case PushInstruction pi when pi.isConstant() -> pi.getConstant() == 0 || pi.getConstant() == -1;
+            default -> false;
+        };
+    }
+
+    private static boolean makesCalls(PushGroup pg) {
+        boolean[] calls = {false};
+        InstructionWalker.walk(pg, node -> calls[0] |= node instanceof CallGroup);
+        return calls[0];
+    }
+
+    //Jumps to target when the fusable condition is true (when is true) or false (when is false), else falls through
+    private static void branch(PushGroup cond, String target, boolean when, AsmSink asm, TranslationContext ctx) throws Exception {
+        switch (cond) {
+            case UnaryPushGroup upg -> branch(upg.getInner(), target, !when, asm, ctx);
+            case PushInstruction pi -> {
+                if ((pi.getConstant() != 0) == when) asm.addAll("@" + target, "0;JMP");
+            }
+            case BinaryPushGroup bpg when bpg.getOp() == ArithmeticInstruction.Op.AND || bpg.getOp() == ArithmeticInstruction.Op.OR -> {
+                // a and b is false as soon as a is; a or b is true as soon as a is
+                boolean shortCircuit = bpg.getOp() == ArithmeticInstruction.Op.OR;
+                if (shortCircuit == when) {
+                    branch(bpg.getLeft(), target, when, asm, ctx);
+                    branch(bpg.getRight(), target, when, asm, ctx);
+                } else {
+                    String skip = ctx.scopedLabel(bpg.getOp() + "_SKIP." + ctx.nextCompareId());
+                    branch(bpg.getLeft(), skip, !when, asm, ctx);
+                    branch(bpg.getRight(), target, when, asm, ctx);
+                    asm.add("(" + skip + ")");
+                }
+            }
+            case BinaryPushGroup bpg -> {
+                // x == 0 on a condition is its negation
+                if (bpg.getOp() == ArithmeticInstruction.Op.EQ && bpg.getRight().isConstant() && bpg.getRight().getConstant() == 0 && isFusable(bpg.getLeft())) {
+                    branch(bpg.getLeft(), target, !when, asm, ctx);
+                    return;
+                }
+                // Same difference the DO_ routines test
+                new BinaryPushGroup(bpg.getLeft(), bpg.getRight(), ArithmeticInstruction.Op.SUB).setD(asm, ctx);
+                String jump = switch (bpg.getOp()) {
+                    case GT -> when ? "JGT" : "JLE";
+                    case LT -> when ? "JLT" : "JGE";
+                    case EQ -> when ? "JEQ" : "JNE";
+                    default -> throw new IllegalStateException("Unexpected op " + bpg.getOp());
+                };
+                asm.addAll("@" + target, "D;" + jump);
+            }
+            default -> throw new IllegalStateException("Not a fusable condition: " + cond);
         }
-        return asm;
     }
 
     @Override
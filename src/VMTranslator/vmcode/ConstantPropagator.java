@@ -0,0 +1,188 @@
+package VMTranslator.vmcode;
+
+import java.util.*;
+
+/**
+ * Forward constant propagation over the grouped instructions of each function.
+ * Tracks locals, arguments and statics that hold a known constant, replaces their reads with the constant and
+ * folds the expressions that become constant. A ConditionalGroup whose condition folds becomes a goto or
+ * disappears, and blocks that no path reaches any more are dropped with their labels.
+ * <p>
+ * Locals start out as 0, as the function prologue leaves them. Statics are forgotten at every call, since the
+ * callee may assign them, and at every write through a pointer, since it may alias them. Reads of statics are
+ * not replaced in an instruction that also makes a call.
+ */
+public final class ConstantPropagator {
+
+    private int replacedReads;
+    private int foldedBranches;
+    private int droppedInstructions;
+
+    public int getReplacedReads() {
+        return replacedReads;
+    }
+
+    public int getFoldedBranches() {
+        return foldedBranches;
+    }
+
+    public int getDroppedInstructions() {
+        return droppedInstructions;
+    }
+
+    public List<VMinstruction> run(List<VMinstruction> instructions) {
+        List<VMinstruction> result = new ArrayList<>(instructions.size());
+        int start = 0;
+        while (start < instructions.size()) {
+            int end = start + 1;
+            while (end < instructions.size() && !(instructions.get(end) instanceof FunctionInstruction)) end++;
+            if (instructions.get(start) instanceof FunctionInstruction f) {
+                result.add(f);
+                result.addAll(function(f, instructions.subList(start + 1, end)));
+            } else {
+                result.addAll(instructions.subList(start, end));
+            }
+            start = end;
+        }
+        return result;
+    }
+
+    //Straight-line run of instructions: entered only at the top, left only at the bottom
+    private static final class Block {
+        final List<VMinstruction> body = new ArrayList<>();
+        Map<Address, Short> in; //Constants known on entry; null while no path reaches the block
+    }
+
+    private List<VMinstruction> function(FunctionInstruction f, List<VMinstruction> body) {
+        List<Block> blocks = new ArrayList<>();
+        Map<String, Integer> labels = new HashMap<>();
+        Block current = null;
+        for (VMinstruction inst : body) {
+            if (current == null || inst instanceof LabelInstruction) {
+                current = new Block();
+                blocks.add(current);
+                if (inst instanceof LabelInstruction l) labels.put(l.getLabel(), blocks.size() - 1);
+            }
+            current.body.add(inst);
+            if (inst instanceof GotoInstruction || inst instanceof ConditionalGroup || inst instanceof IfGotoInstruction || inst instanceof ReturnInstruction) {
+                current = null;
+            }
+        }
+        if (blocks.isEmpty()) return body;
+
+        Map<Address, Short> entry = new HashMap<>();
+        for (short i = 0; i < f.getNumLocals(); i++) entry.put(Address.of(Segment.LOCAL, i), (short) 0);
+        blocks.getFirst().in = entry;
+
+        // Iterate to a fixed point; entry states only ever lose constants, so this terminates
+        Deque<Integer> work = new ArrayDeque<>(List.of(0));
+        while (!work.isEmpty()) {
+            int b = work.removeFirst();
+            Map<Address, Short> state = new HashMap<>(blocks.get(b).in);
+            List<Integer> successors = new ArrayList<>();
+            boolean fallsThrough = true;
+            for (VMinstruction inst : blocks.get(b).body) {
+                VMinstruction folded = transfer(inst, state, false);
+                if (folded == null) continue;
+                switch (folded) {
+                    case GotoInstruction g -> {
+                        successors.add(target(labels, g.getLabel()));
+                        fallsThrough = false;
+                    }
+                    case ConditionalGroup cg -> successors.add(target(labels, cg.getIfGoto().getLabel()));
+                    case IfGotoInstruction ig -> successors.add(target(labels, ig.getLabel()));
+                    case ReturnInstruction r -> fallsThrough = false;
+                    default -> {
+                    }
+                }
+            }
+            if (fallsThrough && b + 1 < blocks.size()) successors.add(b + 1);
+
+            for (int s : successors) {
+                if (s < 0) continue;
+                Block succ = blocks.get(s);
+                if (succ.in == null) {
+                    succ.in = new HashMap<>(state);
+                } else if (!succ.in.entrySet().retainAll(state.entrySet())) {
+                    continue;
+                }
+                if (!work.contains(s)) work.addLast(s);
+            }
+        }
+
+        List<VMinstruction> result = new ArrayList<>(body.size());
+        for (Block block : blocks) {
+            if (block.in == null) {
+                droppedInstructions += block.body.size();
+                continue;
+            }
+            Map<Address, Short> state = new HashMap<>(block.in);
+            for (VMinstruction inst : block.body) {
+                VMinstruction folded = transfer(inst, state, true);
+                if (folded != null) result.add(folded);
+                else droppedInstructions++;
+            }
+        }
+        return result;
+    }
+
+    //A jump to a label the function does not define leaves the analysis nothing to follow
+    private static int target(Map<String, Integer> labels, String label) {
+        return labels.getOrDefault(label, -1);
+    }
+
+    /**
+     * Rewrites inst with the constants known before it and updates state to what is known after it.
+     * Returns null when the instruction folds away entirely.
+     */
+    private VMinstruction transfer(VMinstruction inst, Map<Address, Short> state, boolean count) {
+        boolean[] calls = {false};
+        InstructionWalker.walk(inst, node -> calls[0] |= node instanceof CallGroup);
+
+        VMinstruction rewritten = InstructionRewriter.rewrite(inst, pg -> {
+            if (pg instanceof PushInstruction pi) {
+                Address a = pi.getAddress();
+                Short value = state.get(a);
+                if (value == null || calls[0] && a.getSegment() == Segment.STATIC) return pg;
+                if (count) replacedReads++;
+                return constant(value);
+            }
+            if (pg.isConstant() && !(pg instanceof PushInstruction)) return constant(pg.getConstant());
+            return pg;
+        });
+
+        if (calls[0]) forgetStatics(state);
+        switch (rewritten) {
+            case PushPopPair ppp -> assign(state, ppp.getPopAddress(), ppp.getPush());
+            case PopInstruction pop -> assign(state, pop.getAddress(), null);
+            case PushWriter pw -> forgetStatics(state);
+            case ConditionalGroup cg when cg.getPush().isConstant() -> {
+                if (count) foldedBranches++;
+                return cg.getPush().getConstant() != 0 ? new GotoInstruction(cg.getIfGoto().getLabel()) : null;
+            }
+            default -> {
+            }
+        }
+        return rewritten;
+    }
+
+    private static void assign(Map<Address, Short> state, Address dest, PushGroup value) {
+        switch (dest.getSegment()) {
+            case LOCAL, ARGUMENT, STATIC -> {
+                if (value != null && value.isConstant()) state.put(dest, value.getConstant());
+                else state.remove(dest);
+            }
+            case THIS, THAT -> forgetStatics(state);
+            default -> {
+            }
+        }
+    }
+
+    private static void forgetStatics(Map<Address, Short> state) {
+        state.keySet().removeIf(a -> a.getSegment() == Segment.STATIC);
+    }
+
+    private static PushInstruction constant(short value) {
+        return new PushInstruction(Address.of(Segment.CONSTANT, value));
+    }
+}
@@ -1,8 +1,5 @@
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class Dereference extends PushGroup {
     //Grammar
     //  PushGroup
@@ -16,23 +13,25 @@ public class Dereference extends PushGroup {
     }
 
     @Override
-    public List<String> decode() throws Exception {
-        List<String> list = new ArrayList<>(setD());
-        list.addAll(List.of("@SP", "AM=M+1", "A=A-1", "M=D"));
-        return list;
+    public void decode(AsmSink asm, TranslationContext ctx) throws Exception {
+        setD(asm, ctx);
+        asm.addAll(AsmSink.PUSH_D);
     }
 
     @Override
-    List<String> setD() throws Exception {
-        List<String> list = new ArrayList<>(base.setD());
-        if (!base.isConstant()) {
-            list.set(list.size() - 1, 'A' + list.get(list.size() - 1).substring(1));
+    void setD(AsmSink asm, TranslationContext ctx) throws Exception {
+        base.setD(asm, ctx);
+        if (!base.isConstant() && asm.last().startsWith("D=")) {
+            asm.replaceLast('A' + asm.last().substring(1));
+        }
+        else if (!base.isConstant()) {
+            // The base ends at a return label, e.g. a call to a function with a static frame
+            asm.add("A=D");
         }
         else{
-            list.removeLast();
+            asm.removeLast();
         }
-        list.add("D=M");
-        return list;
+        asm.add("D=M");
     }
 
 
@@ -0,0 +1,115 @@
+package VMTranslator.vmcode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * operand / 2^shift, rounded toward zero like Math.divide, computed by a shared routine instead of calling Math.divide.
+ * Hack has no right shift, so the routine tests the bits of |operand| from bit shift up and adds the matching power of
+ * two for each one that is set. That is 8 to 10 words a bit, far too many to repeat at every site, so each shift
+ * gets one routine and a site only pushes its return address the way compares do, leaves the operand in D and jumps.
+ * The routine hands back the quotient in D through WRITE_BACK. Site words leave out the operand, and the cycles count
+ * the write back and the longest path, with every bit set.
+ * <pre>
+ * divisor  site words  routine words  cycles at most
+ *       2           8            169             169
+ *       8           8            149             149
+ *      16           8            139             139
+ *     256           8             99              99
+ * </pre>
+ * The call it replaces takes about 14 words at the site and Math.divide runs a loop over the bits of the quotient,
+ * calling Math.abs along the way, for several hundred cycles, so the routine always wins on time. On ROM it saves
+ * 6 words a site and pays for itself once that, or Math.divide dropping out of the program, covers the routine.
+ */
+public class DivideByPowerOfTwo extends PushGroup {
+    private final PushGroup operand;
+    private final int shift;
+
+    public DivideByPowerOfTwo(PushGroup operand, int shift) {
+        this.operand = operand;
+        this.shift = shift;
+    }
+
+    public static String routineLabel(int shift) {
+        return "DIV_POW2." + shift;
+    }
+
+    //The shared routine: the operand in D and the return address on the stack on entry, the quotient in D on return
+    public static List<String> routine(int shift) {
+        String label = routineLabel(shift);
+        List<String> asm = new ArrayList<>(List.of("(" + label + ")", "@R14", "M=D", "@" + label + ".ABS", "D;JGE", "D=-D",
+                "(" + label + ".ABS)", "@R13", "M=D", "@R15", "M=0"));
+        for (int bit = shift; bit < 16; bit++) {
+            // 2^15 does not fit in an A-instruction, but it is the complement of 32767
+            if (bit == 15) asm.addAll(List.of("@32767", "D=!A"));
+            else asm.addAll(List.of("@" + (1 << bit), "D=A"));
+            asm.addAll(List.of("@R13", "D=D&M", "@" + label + ".B" + bit, "D;JEQ"));
+            int step = 1 << (bit - shift);
+            if (step == 1) asm.addAll(List.of("@R15", "M=M+1"));
+            else asm.addAll(List.of("@" + step, "D=A", "@R15", "M=D+M"));
+            asm.add("(" + label + ".B" + bit + ")");
+        }
+        asm.addAll(List.of("@R14", "D=M", "@" + label + ".NEG", "D;JLT", "@R15", "D=M", "@WRITE_BACK", "0;JMP",
+                "(" + label + ".NEG)", "@R15", "D=-M", "@WRITE_BACK", "0;JMP"));
+        return asm;
+    }
+
+    @Override
+    public void decode(AsmSink asm, TranslationContext ctx) throws Exception {
+        setD(asm, ctx);
+        asm.addAll(AsmSink.PUSH_D);
+    }
+
+    @Override
+    void setD(AsmSink asm, TranslationContext ctx) throws Exception {
+        if (isConstant()) {
+            new PushInstruction(Address.of(Segment.CONSTANT, getConstant())).setD(asm, ctx);
+            return;
+        }
+        String ret = ctx.getCurrentFunction() + ".DIV." + ctx.nextCompareId();
+        asm.addAll("@" + ret, "D=A", "@SP", "AM=M+1", "A=A-1", "M=D");
+        operand.setD(asm, ctx);
+        asm.addAll("@" + routineLabel(shift), "0;JMP", "(" + ret + ")");
+    }
+
+    public PushGroup getOperand() {
+        return operand;
+    }
+
+    public int getShift() {
+        return shift;
+    }
+
+    @Override
+    boolean isConstant() {
+        return operand.isConstant();
+    }
+
+    @Override
+    short getConstant() {
+        return (short) (operand.getConstant() / (1 << shift));
+    }
+
+    @Override
+    String toString(int i) {
+        return " ".repeat(i) + "DivideByPowerOfTwo(" + (1 << shift) + ",\n" + operand.toString(i + 4) + "\n" + " ".repeat(i) + ")";
+    }
+
+    @Override
+    public String toString() {
+        return toString(0);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof DivideByPowerOfTwo other)) return false;
+        return shift == other.shift && Objects.equals(operand, other.operand);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(operand, shift);
+    }
+}
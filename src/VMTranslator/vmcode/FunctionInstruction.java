@@ -2,41 +2,44 @@ package VMTranslator.vmcode;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 public class FunctionInstruction implements VMinstruction {
     private final int numLocals;
-    private final Map<String, Integer> funcMapping;
     private String funcName;
-    public FunctionInstruction(String functionName, int numLocals, Map<String, Integer> funcMapping) {
+    public FunctionInstruction(String functionName, int numLocals) {
         funcName = functionName;
-        VMParser.currentFunction = funcName;
         this.numLocals = numLocals;
-        this.funcMapping = funcMapping;
     }
 
     @Override
-    public List<String> decode() {
-        VMParser.currentFunction = funcName;
-        funcMapping.put(VMParser.currentFunction, 0);
-
-        List<String> asm = new ArrayList<>();
-        asm.add("// function " + VMParser.currentFunction + " with " + numLocals);
-        asm.add("(" + VMParser.currentFunction + ")");
+    public void decode(AsmSink asm, TranslationContext ctx) {
+        ctx.enterFunction(funcName);
+
+        asm.add("// function " + funcName + " with " + numLocals);
+        asm.add("(" + funcName + ")");
+
+        StaticFrame frame = ctx.getCurrentFrame();
+        if (frame != null) {
+            // The caller has already stored the return address and arguments into the frame
+            for (int i = 0; i < numLocals; i++) {
+                asm.addAll("@" + frame.local(i), "M=0");
+            }
+            if (frame.savesThis()) asm.addAll("@THIS", "D=M", "@" + frame.thisSlot(), "M=D");
+            if (frame.savesThat()) asm.addAll("@THAT", "D=M", "@" + frame.thatSlot(), "M=D");
+            return;
+        }
 
         // Push zero-initialized locals using optimized constant push
         List<PushGroup> zeroPushes = new ArrayList<>();
         for (int i = 0; i < numLocals; i++) {
-            zeroPushes.add(new PushInstruction(new Address("constant", (short) 0)));
+            zeroPushes.add(new PushInstruction(Address.of(Segment.CONSTANT, (short) 0)));
         }
 
         try {
-            asm.addAll(PushInstruction.handleMultiplePushes(zeroPushes));
+            PushInstruction.handleMultiplePushes(zeroPushes, asm, ctx);
         } catch (Exception e) {
             throw new RuntimeException("Failed to generate locals for function " + funcName, e);
         }
-
-        return asm;
     }
 
 
@@ -46,11 +49,9 @@ public class FunctionInstruction implements VMinstruction {
 
     @Override
     public String toString() {
-        VMParser.currentFunction = funcName;
         return "FunctionInstruction{" +
-                "functionName='" + VMParser.currentFunction + '\'' +
+                "functionName='" + funcName + '\'' +
                 ", numLocals=" + numLocals +
-                ", funcMapping=" + funcMapping +
                 '}';
     }
 
@@ -1,9 +1,6 @@
 // vmcode/GotoInstruction.java
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class GotoInstruction implements VMinstruction {
     private final String label;
 
@@ -12,12 +9,10 @@ public class GotoInstruction implements VMinstruction {
     }
 
     @Override
-    public List<String> decode() {
-        List<String> asm = new ArrayList<>();
+    public void decode(AsmSink asm, TranslationContext ctx) {
         asm.add("// goto " + label);
-        asm.add("@" + label);
+        asm.add("@" + ctx.scopedLabel(label));
         asm.add("0;JMP");
-        return asm;
     }
 
     public String getLabel() {
@@ -1,9 +1,6 @@
 // vmcode/IfGotoInstruction.java
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class IfGotoInstruction implements VMinstruction {
     private final String label;
 
@@ -22,8 +19,7 @@ public class IfGotoInstruction implements VMinstruction {
 
 
     @Override
-    public List<String> decode() {
-        List<String> asm = new ArrayList<>();
+    public void decode(AsmSink asm, TranslationContext ctx) {
         asm.add("// if-goto " + label);
 
         // Decrement SP and load *SP into D
@@ -32,9 +28,7 @@ public class IfGotoInstruction implements VMinstruction {
         asm.add("D=M");
 
         // Jump if D != 0 to the label
-        asm.add("@" + label);
+        asm.add("@" + ctx.scopedLabel(label));
         asm.add("D;JNE");
-
-        return asm;
     }
 }
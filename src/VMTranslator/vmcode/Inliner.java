@@ -0,0 +1,161 @@
+package VMTranslator.vmcode;
+
+import java.util.*;
+
+/**
+ * Substitutes the bodies of small leaf functions into the CallGroups that call them, so those calls build no frame.
+ * A function qualifies when its whole body is "return expression", optionally after the "push argument 0,
+ * pop pointer 0" that starts a method, and the expression makes no calls and reads no locals.
+ * At a call site argument i becomes the i-th pushed expression and this j becomes the word j past argument 0.
+ * A site keeps its call when an argument makes a call, when an argument other than a plain push is used more than
+ * once, or when the body reads statics of another module.
+ */
+public final class Inliner {
+    public static final int DEFAULT_MAX_SIZE = 8;
+    private static final Address POINTER_0 = Address.of(Segment.POINTER, (short) 0);
+    private static final Address ARGUMENT_0 = Address.of(Segment.ARGUMENT, (short) 0);
+
+    private record Body(String module, boolean method, PushGroup expression, int[] argumentUses, boolean readsStatics) {
+    }
+
+    private final Map<String, Body> bodies = new TreeMap<>();
+
+    /**
+     * Finds the inlinable functions of every module (module name -> grouped instructions); bodies with more than
+     * maxSize nodes are left alone
+     */
+    public Inliner(Map<String, List<VMinstruction>> modules, int maxSize) {
+        for (Map.Entry<String, List<VMinstruction>> module : modules.entrySet()) {
+            List<VMinstruction> instructions = module.getValue();
+            for (int i = 0; i < instructions.size(); i++) {
+                if (!(instructions.get(i) instanceof FunctionInstruction f)) continue;
+                int end = i + 1;
+                while (end < instructions.size() && !(instructions.get(end) instanceof FunctionInstruction)) end++;
+                Body body = leafBody(module.getKey(), instructions.subList(i + 1, end), maxSize);
+                if (body != null) bodies.put(f.getFuncName(), body);
+            }
+        }
+    }
+
+    private static Body leafBody(String module, List<VMinstruction> body, int maxSize) {
+        boolean method = false;
+        if (body.size() == 2 && body.getFirst() instanceof PushPopPair ppp && ppp.getPopAddress() == POINTER_0
+                && ppp.getPush() instanceof PushInstruction pi && pi.getAddress() == ARGUMENT_0) {
+            method = true;
+        } else if (body.size() != 1) {
+            return null;
+        }
+        if (!(body.getLast() instanceof ReturnInstruction r) || r.getPg() == null) return null;
+
+        int[] size = {0};
+        int[] uses = new int[16];
+        boolean[] ok = {true};
+        boolean[] statics = {false};
+        boolean isMethod = method;
+        InstructionWalker.walk(r.getPg(), node -> {
+            size[0]++;
+            if (node instanceof CallGroup) ok[0] = false;
+            if (!(node instanceof PushInstruction pi)) return;
+            Address a = pi.getAddress();
+            switch (a.getSegment()) {
+                case CONSTANT -> {
+                }
+                case ARGUMENT -> {
+                    if (a.getIndex() < uses.length) uses[a.getIndex()]++;
+                    else ok[0] = false;
+                }
+                case THIS -> {
+                    if (isMethod) uses[0]++;
+                    else ok[0] = false;
+                }
+                case POINTER -> {
+                    if (isMethod && a == POINTER_0) uses[0]++;
+                    else ok[0] = false;
+                }
+                case STATIC -> statics[0] = true;
+                default -> ok[0] = false;
+            }
+        });
+        if (!ok[0] || size[0] > maxSize) return null;
+        return new Body(module, method, r.getPg(), uses, statics[0]);
+    }
+
+    public Set<String> getInlinable() {
+        return Collections.unmodifiableSet(bodies.keySet());
+    }
+
+    //Changes whenever any inlinable body does, for keying cached output of modules that may have inlined it
+    public String signature() {
+        StringBuilder sb = new StringBuilder();
+        bodies.forEach((name, body) -> sb.append(name).append(' ').append(body.method).append(' ').append(body.expression).append('\n'));
+        return sb.toString();
+    }
+
+    /**
+     * Returns the instructions of module with every eligible call site replaced by the callee's expression,
+     * and the number of sites replaced in sites[0]
+     */
+    public List<VMinstruction> inline(String module, List<VMinstruction> instructions, int[] sites) {
+        List<VMinstruction> result = new ArrayList<>(instructions.size());
+        for (VMinstruction instr : instructions) {
+            VMinstruction rewritten = InstructionRewriter.rewrite(instr, pg -> pg instanceof CallGroup cg ? inlineCall(module, cg, sites) : pg);
+            // "do f()" of an inlined function leaves a pure expression whose value is thrown away
+            if (rewritten instanceof PushPopPair ppp && ppp.getPopAddress() == Address.of(Segment.TEMP, (short) 0)
+                    && instr instanceof PushPopPair original && original.getPush() instanceof CallGroup && !(ppp.getPush() instanceof CallGroup)) {
+                continue;
+            }
+            result.add(rewritten);
+        }
+        return result;
+    }
+
+    private PushGroup inlineCall(String module, CallGroup cg, int[] sites) {
+        Body body = bodies.get(cg.getFunctionName());
+        if (body == null || cg.getCall().getArgs() != cg.getPushes().size()) return cg;
+        if (body.readsStatics && !body.module.equals(module)) return cg;
+
+        List<PushGroup> args = cg.getPushes();
+        for (int i = 0; i < body.argumentUses.length; i++) {
+            if (body.argumentUses[i] > 0 && i >= args.size()) return cg;
+        }
+        for (int i = 0; i < args.size(); i++) {
+            PushGroup arg = args.get(i);
+            boolean[] calls = {false};
+            InstructionWalker.walk(arg, node -> calls[0] |= node instanceof CallGroup);
+            if (calls[0]) return cg;
+            if (body.argumentUses[i] > 1 && !(arg instanceof PushInstruction)) return cg;
+        }
+        // A constant object would make this j a dereference of a constant address
+        if (body.method && args.getFirst().isConstant()) return cg;
+
+        sites[0]++;
+        return InstructionRewriter.rewrite(body.expression, pg -> substitute(pg, body, args));
+    }
+
+    private static PushGroup substitute(PushGroup pg, Body body, List<PushGroup> args) {
+        if (pg instanceof PushInstruction pi) {
+            Address a = pi.getAddress();
+            switch (a.getSegment()) {
+                case ARGUMENT -> {
+                    return args.get(a.getIndex());
+                }
+                case POINTER -> {
+                    return args.getFirst();
+                }
+                case THIS -> {
+                    PushGroup object = args.getFirst();
+                    // Called on this: the field is one of the caller's own
+                    if (object instanceof PushInstruction o && o.getAddress() == POINTER_0) return pg;
+                    if (a.getIndex() == 0) return new Dereference(object);
+                    return new Dereference(new BinaryPushGroup(object, new PushInstruction(Address.of(Segment.CONSTANT, a.getIndex())), ArithmeticInstruction.Op.ADD));
+                }
+                default -> {
+                    return pg;
+                }
+            }
+        }
+        // Arguments that were constants can turn a whole subexpression constant
+        if (pg.isConstant()) return new PushInstruction(Address.of(Segment.CONSTANT, pg.getConstant()));
+        return pg;
+    }
+}
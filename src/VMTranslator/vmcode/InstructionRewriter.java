@@ -0,0 +1,51 @@
+package VMTranslator.vmcode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bottom-up rebuild of grouped instructions: each nested PushGroup is handed to the rewriter after its children
+ * have been rewritten, and whatever the rewriter returns takes its place. Nodes are copied, never changed in place.
+ */
+public final class InstructionRewriter {
+
+    private InstructionRewriter() {
+    }
+
+    public static List<VMinstruction> rewrite(List<VMinstruction> instructions, UnaryOperator<PushGroup> rewriter) {
+        List<VMinstruction> result = new ArrayList<>(instructions.size());
+        for (VMinstruction instr : instructions) {
+            result.add(rewrite(instr, rewriter));
+        }
+        return result;
+    }
+
+    public static VMinstruction rewrite(VMinstruction instr, UnaryOperator<PushGroup> rewriter) {
+        return switch (instr) {
+            case PushGroup pg -> rewrite(pg, rewriter);
+            case PushPopPair ppp -> new PushPopPair(rewrite(ppp.getPush(), rewriter), ppp.getPop());
+            case PushWriter pw -> new PushWriter(rewrite(pw.getSource(), rewriter), rewrite(pw.getDest(), rewriter));
+            case ConditionalGroup cg -> new ConditionalGroup(rewrite(cg.getPush(), rewriter), cg.getIfGoto());
+            case ReturnInstruction r -> r.getPg() == null ? r : new ReturnInstruction(rewrite(r.getPg(), rewriter));
+            default -> instr;
+        };
+    }
+
+    public static PushGroup rewrite(PushGroup pg, UnaryOperator<PushGroup> rewriter) {
+        PushGroup rebuilt = switch (pg) {
+            case CallGroup cg -> {
+                List<PushGroup> pushes = new ArrayList<>(cg.getPushes().size());
+                for (PushGroup push : cg.getPushes()) pushes.add(rewrite(push, rewriter));
+                yield new CallGroup(pushes, cg.getCall());
+            }
+            case BinaryPushGroup bpg -> new BinaryPushGroup(rewrite(bpg.getLeft(), rewriter), rewrite(bpg.getRight(), rewriter), bpg.getOp());
+            case UnaryPushGroup upg -> new UnaryPushGroup(rewrite(upg.getInner(), rewriter), upg.getOp());
+            case Dereference d -> new Dereference(rewrite(d.getBase(), rewriter));
+            case MultiplyByConstant m -> new MultiplyByConstant(rewrite(m.getOperand(), rewriter), m.getFactor());
+            case DivideByPowerOfTwo d -> new DivideByPowerOfTwo(rewrite(d.getOperand(), rewriter), d.getShift());
+            default -> pg;
+        };
+        return rewriter.apply(rebuilt);
+    }
+}
@@ -0,0 +1,50 @@
+package VMTranslator.vmcode;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Pre-order traversal over grouped instructions, descending into every nested PushGroup.
+ */
+public final class InstructionWalker {
+
+    private InstructionWalker() {
+    }
+
+    public static void walk(List<VMinstruction> instructions, Consumer<VMinstruction> visitor) {
+        for (VMinstruction instr : instructions) {
+            walk(instr, visitor);
+        }
+    }
+
+    public static void walk(VMinstruction instr, Consumer<VMinstruction> visitor) {
+        if (instr == null) return;
+        visitor.accept(instr);
+        switch (instr) {
+            case PushPopPair ppp -> {
+                walk(ppp.getPush(), visitor);
+                walk(ppp.getPop(), visitor);
+            }
+            case PushWriter pw -> {
+                walk(pw.getDest(), visitor);
+                walk(pw.getSource(), visitor);
+            }
+            case ConditionalGroup cg -> walk(cg.getPush(), visitor);
+            case ReturnInstruction r -> walk(r.getPg(), visitor);
+            case CallGroup cg -> {
+                for (PushGroup pg : cg.getPushes()) walk(pg, visitor);
+                walk(cg.getCall(), visitor);
+            }
+            case BinaryPushGroup bpg -> {
+                walk(bpg.getLeft(), visitor);
+                walk(bpg.getRight(), visitor);
+            }
+            case UnaryPushGroup upg -> walk(upg.getInner(), visitor);
+            case Dereference d -> walk(d.getBase(), visitor);
+            case MultiplyByConstant m -> walk(m.getOperand(), visitor);
+            case DivideByPowerOfTwo d -> walk(d.getOperand(), visitor);
+            default -> {
+            }
+        }
+    }
+}
@@ -1,9 +1,6 @@
 // vmcode/LabelInstruction.java
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class LabelInstruction implements VMinstruction {
     private final String label;
 
@@ -16,11 +13,9 @@ public class LabelInstruction implements VMinstruction {
     }
 
     @Override
-    public List<String> decode() {
-        List<String> asm = new ArrayList<>();
+    public void decode(AsmSink asm, TranslationContext ctx) {
         asm.add("// label " + label);
-        asm.add("(" + label + ")");
-        return asm;
+        asm.add("(" + ctx.scopedLabel(label) + ")");
     }
 
     @Override
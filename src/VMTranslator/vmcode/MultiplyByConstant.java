@@ -0,0 +1,108 @@
+package VMTranslator.vmcode;
+
+import java.util.Objects;
+
+/**
+ * operand * factor for a constant factor, computed in line by doubling and adding instead of calling Math.multiply.
+ * The bits of |factor| are taken from the top: each further bit doubles the product with "A=D, D=D+A" and each
+ * further set bit adds the operand back from R13. That is 2 words per bit after the first, 2 per set bit after the
+ * first, 2 to keep the operand when there are any and 1 to negate, and as many cycles:
+ * <pre>
+ * factor  words      factor  words
+ *      2      2          30     16
+ *      8      6          64     12
+ *     10     10         256     16
+ *     11     12         352     22
+ *     16      8        1000     30
+ * </pre>
+ * The call it replaces takes about 14 words at the site with its arguments and then well over 100 cycles in the
+ * shift-and-add loop of Math.multiply, so in-line code always wins on time; it is used up to MAX_WORDS, which
+ * trades at most 8 extra words per site for that.
+ */
+public class MultiplyByConstant extends PushGroup {
+    public static final int MAX_WORDS = 22;
+
+    private final PushGroup operand;
+    private final short factor;
+
+    public MultiplyByConstant(PushGroup operand, short factor) {
+        this.operand = operand;
+        this.factor = factor;
+    }
+
+    //Words of in-line code for a given factor, not counting the operand
+    public static int words(short factor) {
+        if (factor == 0) return 1;
+        boolean negate = factor < 0 && factor != Short.MIN_VALUE;
+        int magnitude = negate ? -factor : factor & 0xFFFF;
+        int bits = 32 - Integer.numberOfLeadingZeros(magnitude), ones = Integer.bitCount(magnitude);
+        return 2 * (bits - 1) + 2 * (ones - 1) + (ones > 1 ? 2 : 0) + (negate ? 1 : 0);
+    }
+
+    @Override
+    public void decode(AsmSink asm, TranslationContext ctx) throws Exception {
+        setD(asm, ctx);
+        asm.addAll(AsmSink.PUSH_D);
+    }
+
+    @Override
+    void setD(AsmSink asm, TranslationContext ctx) throws Exception {
+        if (isConstant()) {
+            new PushInstruction(Address.of(Segment.CONSTANT, getConstant())).setD(asm, ctx);
+            return;
+        }
+        operand.setD(asm, ctx);
+        if (factor == 0) {
+            asm.add("D=0");
+            return;
+        }
+        boolean negate = factor < 0 && factor != Short.MIN_VALUE;
+        int magnitude = negate ? -factor : factor & 0xFFFF;
+        if (Integer.bitCount(magnitude) > 1) asm.addAll("@R13", "M=D");
+        for (int bit = 30 - Integer.numberOfLeadingZeros(magnitude); bit >= 0; bit--) {
+            asm.addAll("A=D", "D=D+A");
+            if ((magnitude >> bit & 1) != 0) asm.addAll("@R13", "D=D+M");
+        }
+        if (negate) asm.add("D=-D");
+    }
+
+    public PushGroup getOperand() {
+        return operand;
+    }
+
+    public short getFactor() {
+        return factor;
+    }
+
+    @Override
+    boolean isConstant() {
+        return operand.isConstant();
+    }
+
+    @Override
+    short getConstant() {
+        return (short) (operand.getConstant() * factor);
+    }
+
+    @Override
+    String toString(int i) {
+        return " ".repeat(i) + "MultiplyByConstant(" + factor + ",\n" + operand.toString(i + 4) + "\n" + " ".repeat(i) + ")";
+    }
+
+    @Override
+    public String toString() {
+        return toString(0);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof MultiplyByConstant other)) return false;
+        return factor == other.factor && Objects.equals(operand, other.operand);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(operand, factor);
+    }
+}
@@ -0,0 +1,118 @@
+package VMTranslator.vmcode;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Sliding-window rewrites over emitted Hack assembly, for redundancies that only show up where the code of
+ * neighbouring instructions meets. A window is a run of consecutive instructions, with comments skipped; a label
+ * may only be its last line, so no rule ever moves or removes code across a jump target.
+ * Rules are tried in table order at each position and passes repeat until nothing matches.
+ */
+public final class PeepholeOptimizer {
+    private static final int MAX_PASSES = 8;
+
+    /**
+     * Rewrites a window of size lines, returning the lines that replace it (never more than it had),
+     * or null when the rule does not apply
+     */
+    public record Rule(String name, int size, Function<List<String>, List<String>> rewrite) {
+    }
+
+    public static final List<Rule> DEFAULT_RULES = List.of(
+            // @X @Y: the first load is overwritten before anything uses it
+            new Rule("dead-a-load", 2, w -> isLoad(w.get(0)) && isLoad(w.get(1)) ? List.of(w.get(1)) : null),
+            // @X c @X, where c leaves A alone: A still holds X
+            new Rule("repeated-a-load", 3, w -> isLoad(w.get(0)) && w.get(2).equals(w.get(0)) && !writesA(w.get(1)) ? w.subList(0, 2) : null),
+            // M=D D=M: D already holds the value just stored
+            new Rule("store-then-load", 2, w -> w.get(0).equals("M=D") && w.get(1).equals("D=M") ? w.subList(0, 1) : null),
+            // Dropping a discarded value and then pushing lands SP where it started
+            new Rule("pop-then-push", 2, w -> w.get(0).equals("M=M-1") && w.get(1).equals("AM=M+1") ? List.of("A=M") : null),
+            new Rule("pop-then-push-empty", 2, w -> w.get(0).equals("M=M-1") && w.get(1).equals("M=M+1") ? List.of() : null),
+            new Rule("load-then-step", 2, w -> w.get(0).equals("A=M") && w.get(1).equals("A=A-1") ? List.of("A=M-1") : null),
+            // @L 0;JMP (L): the jump lands on the next instruction anyway
+            new Rule("jump-to-next", 3, w -> isLoad(w.get(0)) && w.get(1).equals("0;JMP") && w.get(2).equals("(" + w.get(0).substring(1) + ")") ? w.subList(2, 3) : null));
+
+    private final List<Rule> rules;
+    private final Map<String, Integer> hits = new LinkedHashMap<>();
+
+    public PeepholeOptimizer() {
+        this(DEFAULT_RULES);
+    }
+
+    public PeepholeOptimizer(List<Rule> rules) {
+        this.rules = rules;
+        for (Rule rule : rules) hits.put(rule.name(), 0);
+    }
+
+    //Rule name -> windows rewritten so far, in table order
+    public Map<String, Integer> getHits() {
+        return Collections.unmodifiableMap(hits);
+    }
+
+    public AsmBuffer optimize(AsmBuffer asm) {
+        List<String> lines = new ArrayList<>(asm.toList());
+        for (int pass = 0; pass < MAX_PASSES && optimizePass(lines); pass++) {
+            lines.removeIf(Objects::isNull);
+        }
+        lines.removeIf(Objects::isNull);
+
+        AsmBuffer result = new AsmBuffer();
+        for (String line : lines) result.add(line);
+        return result;
+    }
+
+    //One left-to-right sweep; removed lines are left as nulls so comments keep their place
+    private boolean optimizePass(List<String> lines) {
+        List<Integer> code = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (AsmWriter.isRealInstruction(lines.get(i)) || isLabel(lines.get(i))) code.add(i);
+        }
+
+        boolean changed = false;
+        int pos = 0;
+        while (pos < code.size()) {
+            boolean matched = false;
+            for (Rule rule : rules) {
+                if (pos + rule.size() > code.size()) continue;
+                List<String> window = new ArrayList<>(rule.size());
+                boolean crossesLabel = false;
+                for (int k = 0; k < rule.size(); k++) {
+                    String line = lines.get(code.get(pos + k)).trim();
+                    if (isLabel(line) && k < rule.size() - 1) crossesLabel = true;
+                    window.add(line);
+                }
+                if (crossesLabel) continue;
+
+                List<String> replacement = rule.rewrite().apply(window);
+                if (replacement == null) continue;
+                if (replacement.size() > rule.size()) throw new IllegalStateException("Peephole rule " + rule.name() + " grew its window");
+
+                for (int k = 0; k < rule.size(); k++) {
+                    lines.set(code.get(pos + k), k < replacement.size() ? replacement.get(k) : null);
+                }
+                hits.merge(rule.name(), 1, Integer::sum);
+                pos += rule.size();
+                matched = changed = true;
+                break;
+            }
+            if (!matched) pos++;
+        }
+        return changed;
+    }
+
+    private static boolean isLabel(String line) {
+        return line.trim().startsWith("(");
+    }
+
+    private static boolean isLoad(String line) {
+        return line.startsWith("@");
+    }
+
+    //A-instructions, labels and computations with A among their destinations
+    private static boolean writesA(String line) {
+        if (isLoad(line) || isLabel(line)) return true;
+        int eq = line.indexOf('=');
+        return eq > 0 && line.substring(0, eq).contains("A");
+    }
+}
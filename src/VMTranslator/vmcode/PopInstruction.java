@@ -1,8 +1,5 @@
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class PopInstruction implements VMinstruction {
     private final Address address;
 
@@ -11,21 +8,17 @@ public class PopInstruction implements VMinstruction {
     }
 
     @Override
-    public List<String> decode() {
-        List<String> asm = new ArrayList<>();
-
-        if (address.isTrivial()) {
+    public void decode(AsmSink asm, TranslationContext ctx) {
+        if (address.isTrivial(ctx)) {
             // Trivial address: D not overwritten by setAreg()
-            asm.addAll(List.of("@SP", "AM=M-1", "D=M"));
-            asm.addAll(address.resolveAddressTo("A"));
+            asm.addAll(AsmSink.POP_D);
+            asm.addAll(address.resolveAddressTo("A", ctx));
             asm.add("M=D");
         } else {
             // Non-trivial address: use R13 to preserve destination address
-            asm.addAll(address.resolveAddressTo("A"));
-            asm.addAll(List.of("D=A", "@R13", "M=D", "@SP", "AM=M-1", "D=M", "@R13", "A=M", "M=D"));
+            asm.addAll(address.resolveAddressTo("A", ctx));
+            asm.addAll("D=A", "@R13", "M=D", "@SP", "AM=M-1", "D=M", "@R13", "A=M", "M=D");
         }
-
-        return asm;
     }
 
     public Address getAddress() {
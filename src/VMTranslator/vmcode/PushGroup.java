@@ -1,9 +1,8 @@
 package VMTranslator.vmcode;
-import java.util.List;
 
 public abstract class PushGroup implements VMinstruction{
     abstract boolean isConstant();
     abstract short getConstant();
-    abstract List<String> setD() throws Exception;
+    abstract void setD(AsmSink asm, TranslationContext ctx) throws Exception;
     abstract String toString(int i);
-}
\ No newline at end of file
+}
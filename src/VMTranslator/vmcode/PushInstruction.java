@@ -17,93 +17,94 @@ public class PushInstruction extends PushGroup {
     }
 
     @Override
-    public List<String> decode() {
+    public void decode(AsmSink asm, TranslationContext ctx) {
         if (isConstant()) {
             if (Math.abs(getConstant()) <= 1) {
-                return new ArrayList<>(List.of("@SP", "AM=M+1", "A=A-1", "M=" + getConstant()));
+                asm.addAll("@SP", "AM=M+1", "A=A-1", "M=" + getConstant());
+                return;
             }
         }
-        List<String> asm = new ArrayList<>();
-        asm.addAll(setD()); // Handles constant optimization internally
-        asm.addAll(List.of("@SP", "AM=M+1", "A=A-1", "M=D"));
-        return asm;
+        setD(asm, ctx); // Handles constant optimization internally
+        asm.addAll(AsmSink.PUSH_D);
     }
 
     @Override
-    List<String> setD() {
+    void setD(AsmSink asm, TranslationContext ctx) {
         if (isConstant()) {
             short c = getConstant();
             if (c == 0 || c == 1 || c == -1) {
-                return List.of("D=" + c);
-            }
-            if (c < 0) {
-                return List.of("@" + (-c), "D=-A");
+                asm.add("D=" + c);
+            } else if (c < 0) {
+                asm.addAll("@" + (-c), "D=-A");
+            } else {
+                asm.addAll("@" + c, "D=A");
             }
-            return List.of("@" + c, "D=A");
+            return;
         }
-        return address.setDreg();
+        asm.addAll(address.setDreg(ctx));
     }
 
-    public static List<String> handleMultiplePushes(List<PushGroup> pushes) throws Exception {
+    public static void handleMultiplePushes(List<PushGroup> pushes, AsmSink asm, TranslationContext ctx) throws Exception {
         if (pushes.isEmpty()) {
-            return new ArrayList<>();
+            return;
         }
         if (pushes.size() == 1) {
-            return pushes.getFirst().decode(); // Case 1
+            pushes.getFirst().decode(asm, ctx); // Case 1
+            return;
         }
         if (allTrivialConstants(pushes)) {
-            return encodeTrivialConstants(pushes); // Case 2
+            encodeTrivialConstants(pushes, asm); // Case 2
+            return;
         }
         if (allSameNonTrivialPush(pushes)) {
-            return encodeRepeatedNonTrivialPush(pushes); // Case 3
+            encodeRepeatedNonTrivialPush(pushes, asm, ctx); // Case 3
+            return;
         }
 
-        return encodeGroupedPushes(pushes); // Case 4
+        encodeGroupedPushes(pushes, asm, ctx); // Case 4
     }
 
     private static boolean allTrivialConstants(List<PushGroup> pushes) {
         return pushes.stream().allMatch(p -> p.isConstant() && Math.abs(p.getConstant()) <= 1);
     }
 
-    private static List<String> encodeTrivialConstants(List<PushGroup> pushes) {
+    private static void encodeTrivialConstants(List<PushGroup> pushes, AsmSink asm) {
         int n = pushes.size();
         if (n == 0){
-            return new ArrayList<>();
+            return;
         }
         if (n == 1) {
-            return new ArrayList<>(List.of("@SP", "AM=M+1", "A=A-1", "M=" + pushes.getFirst().getConstant()));
+            asm.addAll("@SP", "AM=M+1", "A=A-1", "M=" + pushes.getFirst().getConstant());
+            return;
         }
         if (n == 2) {
-            return new ArrayList<>(List.of("@SP", "M=M+1", "AM=M+1", "A=A-1", "M=" + pushes.getLast().getConstant(), "A=A-1", "M=" + pushes.getFirst().getConstant()));
+            asm.addAll("@SP", "M=M+1", "AM=M+1", "A=A-1", "M=" + pushes.getLast().getConstant(), "A=A-1", "M=" + pushes.getFirst().getConstant());
+            return;
         }
-        List<String> asm = new ArrayList<>(List.of("@" + n, "D=A", "@SP", "AM=D+M", "A=A-1"));
+        asm.addAll("@" + n, "D=A", "@SP", "AM=D+M", "A=A-1");
 
         for (int i = n - 1; i >= 0; i--) {
             asm.add("M=" + pushes.get(i).getConstant());
             if (i != 0) asm.add("A=A-1");
         }
-        return asm;
     }
 
     private static boolean allSameNonTrivialPush(List<PushGroup> pushes) {
         return pushes.stream().allMatch(p -> p instanceof PushInstruction pi && pi.equals(pushes.getFirst()));
     }
 
-    private static List<String> encodeRepeatedNonTrivialPush(List<PushGroup> pushes) throws Exception {
-        List<String> asm = new ArrayList<>();
+    private static void encodeRepeatedNonTrivialPush(List<PushGroup> pushes, AsmSink asm, TranslationContext ctx) throws Exception {
         int n = pushes.size();
-        asm.addAll(List.of("@" + n, "D=A", "@SP", "M=D+M"));
-        asm.addAll(((PushInstruction) pushes.getFirst()).setD());
-        asm.addAll(List.of("@SP", "A=M-1"));
+        asm.addAll("@" + n, "D=A", "@SP", "M=D+M");
+        ((PushInstruction) pushes.getFirst()).setD(asm, ctx);
+        asm.addAll("@SP", "A=M-1");
         for (int i = 0; i < n; i++) {
             asm.add("M=D");
             if (i != n - 1) asm.add("A=A-1");
         }
-        return asm;
     }
 
-    private static List<String> encodeGroupedPushes(List<PushGroup> pushes) throws Exception {
-        List<String> asm = new ArrayList<>();
+    private static void encodeGroupedPushes(List<PushGroup> pushes, AsmSink asm, TranslationContext ctx) throws Exception {
         int i = 0;
         while (i < pushes.size()) {
             int j = i;
@@ -133,7 +134,7 @@ public class PushInstruction extends PushGroup {
 
             if (middle.isEmpty()) {
                 // Only trivial constants
-                asm.addAll(encodeTrivialConstants(pushes.subList(i, i + totalSize)));
+                encodeTrivialConstants(pushes.subList(i, i + totalSize), asm);
                 i += totalSize;
                 continue;
             }
@@ -144,7 +145,7 @@ public class PushInstruction extends PushGroup {
                 asm.add("D=A");
                 asm.add("@SP");
                 asm.add("M=D+M");
-                asm.addAll(((PushInstruction) middle.getFirst()).setD());
+                ((PushInstruction) middle.getFirst()).setD(asm, ctx);
                 asm.add("@SP");
                 asm.add("A=M-1");
                 // Write right trivial constants downward
@@ -167,12 +168,12 @@ public class PushInstruction extends PushGroup {
             } else {
                 // Middle is NOT all same PushInstruction
                 // Decode left trivial constants + first middle push normally
-                asm.addAll(encodeTrivialConstants(left));
-                asm.addAll(middle.get(0).decode());
+                encodeTrivialConstants(left, asm);
+                middle.get(0).decode(asm, ctx);
 
                 // Decode all middle except last normally
                 for (int idx = 1; idx < middle.size() - 1; idx++) {
-                    asm.addAll(middle.get(idx).decode());
+                    middle.get(idx).decode(asm, ctx);
                 }
 
                 // Decode last middle + right trivial constants together
@@ -180,47 +181,44 @@ public class PushInstruction extends PushGroup {
                     List<PushGroup> lastPlusRight = new ArrayList<>();
                     lastPlusRight.add(middle.getLast());
                     lastPlusRight.addAll(right);
-                    asm.addAll(encodeTrivialConstantsPlusOnePush(lastPlusRight));
+                    encodeTrivialConstantsPlusOnePush(lastPlusRight, asm, ctx);
                 } else {
                     // No middle pushes? Just encode right constants
-                    asm.addAll(encodeTrivialConstants(right));
+                    encodeTrivialConstants(right, asm);
                 }
 
                 i += totalSize;
             }
         }
-        return asm;
     }
 
     // Helper: encode list of trivial constants + 1 non-trivial PushGroup at start
     // Example: last middle + right trivial constants together
-    private static List<String> encodeTrivialConstantsPlusOnePush(List<PushGroup> pushes) throws Exception {
-        List<String> asm = new ArrayList<>();
-        if (pushes.isEmpty()) return asm;
+    private static void encodeTrivialConstantsPlusOnePush(List<PushGroup> pushes, AsmSink asm, TranslationContext ctx) throws Exception {
+        if (pushes.isEmpty()) return;
         if (pushes.size() == 1){
-            return pushes.getFirst().decode();
+            pushes.getFirst().decode(asm, ctx);
+            return;
         }
         // The first element is the non-trivial push
         PushGroup firstPush = pushes.getFirst();
         if (!(firstPush instanceof PushInstruction) || firstPush.isConstant()) {
             // fallback: decode all normally if first isn't a proper push
-            for (PushGroup pg : pushes) asm.addAll(pg.decode());
-            return asm;
+            for (PushGroup pg : pushes) pg.decode(asm, ctx);
+            return;
         }
 
         int n = pushes.size();
 
-        asm.addAll(List.of("@" + n, "D=A", "@SP", "M=D+M"));
-        asm.addAll(((PushInstruction) firstPush).setD());
-        asm.addAll(List.of("@SP", "A=M-1", "M=D"));
+        asm.addAll("@" + n, "D=A", "@SP", "M=D+M");
+        ((PushInstruction) firstPush).setD(asm, ctx);
+        asm.addAll("@SP", "A=M-1", "M=D");
 
         // write the rest trivial constants downward
         for (int k = pushes.size() - 1; k >= 1; k--) {
             asm.add("A=A-1");
             asm.add("M=" + pushes.get(k).getConstant());
         }
-
-        return asm;
     }
 
 
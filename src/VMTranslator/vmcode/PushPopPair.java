@@ -1,6 +1,5 @@
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class PushPopPair implements VMinstruction {
@@ -25,22 +24,26 @@ public class PushPopPair implements VMinstruction {
     }
 
     @Override
-    public List<String> decode() throws Exception {
-        List<String> asm = new ArrayList<>();
+    public void decode(AsmSink asm, TranslationContext ctx) throws Exception {
         Address dest = pop.getAddress();
 
         //If the push is a CallGroup and the pop is to temp 0, then we can disregard the return value by just decrementing the stack
-        if (push instanceof CallGroup && dest.equals(new Address("temp", (short) 0))){
-            asm.addAll(push.decode());
-            asm.addAll(List.of("@SP", "M=M-1"));
-            return asm;
+        if (push instanceof CallGroup cg && dest == Address.of(Segment.TEMP, (short) 0)){
+            // A function with a static frame returns its value in D, so there is nothing to drop
+            if (ctx.getStaticFrame(cg.getFunctionName()) != null) {
+                cg.setD(asm, ctx);
+                return;
+            }
+            push.decode(asm, ctx);
+            asm.addAll("@SP", "M=M-1");
+            return;
         }
 
         //Handle the constant case here
         if (push.isConstant() && Math.abs(push.getConstant()) <= 1){
-            asm.addAll(pop.getAddress().resolveAddressTo("A"));
+            asm.addAll(pop.getAddress().resolveAddressTo("A", ctx));
             asm.add("M=" + push.getConstant());
-            return asm;
+            return;
         }
 
         //Handle any increment or decrement case here
@@ -59,29 +62,29 @@ public class PushPopPair implements VMinstruction {
 
                     // Only optimize add/sub by ±1
                     if (Math.abs(val) == 1) {
-                        List<String> resolve = dest.resolveAddressTo("A");
+                        List<String> resolve = dest.resolveAddressTo("A", ctx);
 
                         if (op == ArithmeticInstruction.Op.ADD && val == 1) {
                             asm.addAll(resolve);
                             asm.add("M=M+1");
-                            return asm;
+                            return;
                         }
                         if (op == ArithmeticInstruction.Op.SUB && val == 1) {
                             asm.addAll(resolve);
                             asm.add("M=M-1");
-                            return asm;
+                            return;
                         }
                         // For SUB and val == -1, it's equivalent to ADD 1
                         if (op == ArithmeticInstruction.Op.SUB && val == -1) {
                             asm.addAll(resolve);
                             asm.add("M=M+1");
-                            return asm;
+                            return;
                         }
                         // For ADD and val == -1, it's equivalent to SUB 1
                         if (op == ArithmeticInstruction.Op.ADD && val == -1) {
                             asm.addAll(resolve);
                             asm.add("M=M-1");
-                            return asm;
+                            return;
                         }
                     }
                 }
@@ -94,10 +97,10 @@ public class PushPopPair implements VMinstruction {
                 Address rightAddr = right.getAddress();
                 ArithmeticInstruction.Op op = bpg.getOp();
 
-                if (dest.isTrivial()) {
+                if (dest.isTrivial(ctx)) {
                     String opAsm = switch (op) {
                         case ADD -> "D+M";
-                        case SUB -> "D-M";
+                        case SUB -> "M-D";
                         case AND -> "D&M";
                         case OR  -> "D|M";
                         default  -> null;
@@ -105,19 +108,19 @@ public class PushPopPair implements VMinstruction {
 
                     if (opAsm != null) {
                         if (leftAddr.equals(dest)) {
-                            asm.addAll(right.setD());
-                            asm.addAll(dest.resolveAddressTo("A"));
+                            right.setD(asm, ctx);
+                            asm.addAll(dest.resolveAddressTo("A", ctx));
                             asm.add("M=" + opAsm);
-                            return asm;
+                            return;
                         } else if (rightAddr.equals(dest)) {
                             // Commutative ops only: ADD, AND, OR
                             if (op == ArithmeticInstruction.Op.ADD ||
                                     op == ArithmeticInstruction.Op.AND ||
                                     op == ArithmeticInstruction.Op.OR) {
-                                asm.addAll(left.setD());
-                                asm.addAll(dest.resolveAddressTo("A"));
+                                left.setD(asm, ctx);
+                                asm.addAll(dest.resolveAddressTo("A", ctx));
                                 asm.add("M=" + opAsm);
-                                return asm;
+                                return;
                             }
                         }
                     }
@@ -126,15 +129,15 @@ public class PushPopPair implements VMinstruction {
         }
 
 
-        if (dest.isTrivial()) {
-            asm.addAll(push.setD());
-            asm.addAll(dest.resolveAddressTo("A"));
+        if (dest.isTrivial(ctx)) {
+            push.setD(asm, ctx);
+            asm.addAll(dest.resolveAddressTo("A", ctx));
             asm.add("M=D");
         } else {
-            asm.addAll(push.decode());
-            asm.addAll(pop.decode());
+            push.decode(asm, ctx);
+            pop.decode(asm, ctx);
         }
-        return asm;
+        return;
     }
 
 
@@ -1,8 +1,5 @@
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class PushWriter implements VMinstruction {
     //Grammar:
     //  PushGroup | source
@@ -26,11 +23,10 @@ public class PushWriter implements VMinstruction {
     }
 
     @Override
-    public List<String> decode() throws Exception {
-        List<String> asm = new ArrayList<>(dest.decode());
-        asm.addAll(source.setD());
-        asm.addAll(List.of("@SP", "AM=M-1", "A=M", "M=D"));
-        return asm;
+    public void decode(AsmSink asm, TranslationContext ctx) throws Exception {
+        dest.decode(asm, ctx);
+        source.setD(asm, ctx);
+        asm.addAll("@SP", "AM=M-1", "A=M", "M=D");
     }
 
     @Override
@@ -18,11 +18,70 @@ public class ReturnInstruction implements VMinstruction {
         return pg;
     }
 
+    /**
+     * True when the returned value comes straight from a call that can reuse this function's stack frame: the callee
+     * has a stack frame of the same shape, saving the same pointers, and takes as many arguments as every caller
+     * passes to this function
+     */
+    public boolean isTailCall(TranslationContext ctx) {
+        if (!(pg instanceof CallGroup cg) || ctx.getCurrentFrame() != null || ctx.getStaticFrame(cg.getFunctionName()) != null) return false;
+        String current = ctx.getCurrentFunction();
+        return ctx.getArgumentCount(current) == cg.getCall().getArgs()
+                && ctx.getSavedPointers(current) == ctx.getSavedPointers(cg.getFunctionName());
+    }
+
     @Override
-    public List<String> decode() throws Exception {
-        List<String> asm = new ArrayList<>(pg.decode());
-        asm.addAll(List.of("@RETURN", "0;JMP"));
-        return asm;
+    public void decode(AsmSink asm, TranslationContext ctx) throws Exception {
+        if (isTailCall(ctx)) {
+            // The new arguments replace the old ones and the callee returns straight to our caller
+            CallGroup cg = (CallGroup) pg;
+            asm.add("// tail call " + cg.getFunctionName());
+            List<Integer> moved = movedArguments(cg);
+            if (moved != null) {
+                for (int i : moved) new PushPopPair(cg.getPushes().get(i), new PopInstruction(Address.of(Segment.ARGUMENT, (short) i))).decode(asm, ctx);
+            } else {
+                PushInstruction.handleMultiplePushes(cg.getPushes(), asm, ctx);
+                for (int i = cg.getCall().getArgs() - 1; i >= 0; i--) {
+                    new PopInstruction(Address.of(Segment.ARGUMENT, (short) i)).decode(asm, ctx);
+                }
+            }
+            asm.addAll("@LCL", "D=M", "@SP", "M=D", "@" + cg.getFunctionName(), "0;JMP");
+            return;
+        }
+        StaticFrame frame = ctx.getCurrentFrame();
+        if (frame != null) {
+            // The result goes back in D, and the caller's THIS and THAT are put back
+            if (pg == null) asm.addAll(AsmSink.POP_D);
+            else pg.setD(asm, ctx);
+            boolean restores = frame.savesThis() || frame.savesThat();
+            if (restores) asm.addAll("@R13", "M=D");
+            if (frame.savesThis()) asm.addAll("@" + frame.thisSlot(), "D=M", "@THIS", "M=D");
+            if (frame.savesThat()) asm.addAll("@" + frame.thatSlot(), "D=M", "@THAT", "M=D");
+            if (restores) asm.addAll("@R13", "D=M");
+            asm.addAll("@" + frame.returnSlot(), "A=M", "0;JMP");
+            return;
+        }
+        pg.decode(asm, ctx);
+        asm.addAll("@" + ctx.getSavedPointers(ctx.getCurrentFunction()).returnRoutine(), "0;JMP");
+    }
+
+    //Indices of the arguments that change, when each can be assigned in place because none reads another's old value;
+    //null when they have to go through the stack
+    private static List<Integer> movedArguments(CallGroup cg) {
+        List<PushGroup> pushes = cg.getPushes();
+        if (pushes.size() != cg.getCall().getArgs()) return null;
+        List<Integer> moved = new ArrayList<>();
+        for (int i = 0; i < pushes.size(); i++) {
+            if (!(pushes.get(i) instanceof PushInstruction pi && pi.getAddress() == Address.of(Segment.ARGUMENT, (short) i))) moved.add(i);
+        }
+        boolean[] conflict = {false};
+        for (int i : moved) {
+            InstructionWalker.walk(pushes.get(i), node -> {
+                if (node instanceof PushInstruction pi && pi.getAddress().getSegment() == Segment.ARGUMENT
+                        && pi.getAddress().getIndex() != i && moved.contains((int) pi.getAddress().getIndex())) conflict[0] = true;
+            });
+        }
+        return conflict[0] ? null : moved;
     }
 
     @Override
@@ -0,0 +1,49 @@
+package VMTranslator.vmcode;
+
+/**
+ * Which of THIS and THAT a call saves in the callee's frame and restores on return, and the shared CALL and RETURN
+ * routines that do it. The frame keeps its usual order, return address, LCL, ARG, THIS, THAT, minus what is not saved.
+ */
+public enum SavedPointers {
+    NONE("CALL_LIGHT", "RETURN_LIGHT", false, false),
+    THIS("CALL_THIS", "RETURN_THIS", true, false),
+    THAT("CALL_THAT", "RETURN_THAT", false, true),
+    BOTH("CALL", "RETURN", true, true);
+
+    private final String callRoutine;
+    private final String returnRoutine;
+    private final boolean savesThis;
+    private final boolean savesThat;
+
+    SavedPointers(String callRoutine, String returnRoutine, boolean savesThis, boolean savesThat) {
+        this.callRoutine = callRoutine;
+        this.returnRoutine = returnRoutine;
+        this.savesThis = savesThis;
+        this.savesThat = savesThat;
+    }
+
+    public static SavedPointers of(boolean savesThis, boolean savesThat) {
+        return savesThis ? (savesThat ? BOTH : THIS) : (savesThat ? THAT : NONE);
+    }
+
+    public String callRoutine() {
+        return callRoutine;
+    }
+
+    public String returnRoutine() {
+        return returnRoutine;
+    }
+
+    public boolean savesThis() {
+        return savesThis;
+    }
+
+    public boolean savesThat() {
+        return savesThat;
+    }
+
+    //Words between the arguments and the locals
+    public int frameWords() {
+        return 3 + (savesThis ? 1 : 0) + (savesThat ? 1 : 0);
+    }
+}
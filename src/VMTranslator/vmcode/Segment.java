@@ -0,0 +1,49 @@
+package VMTranslator.vmcode;
+
+/**
+ * The VM memory segments. Pointer-based segments carry the Hack symbol holding their base address.
+ */
+public enum Segment {
+    CONSTANT("constant", null), LOCAL("local", "LCL"), ARGUMENT("argument", "ARG"), THIS("this", "THIS"), THAT("that", "THAT"), STATIC("static", null), TEMP("temp", null), POINTER("pointer", null);
+
+    private static final Segment[] VALUES = values();
+
+    private final String vmName;
+    private final String baseSymbol;
+
+    Segment(String vmName, String baseSymbol) {
+        this.vmName = vmName;
+        this.baseSymbol = baseSymbol;
+    }
+
+    public static Segment of(String vmName) {
+        for (Segment s : VALUES) {
+            if (s.vmName.equals(vmName)) return s;
+        }
+        throw new IllegalArgumentException("Unknown segment: " + vmName);
+    }
+
+    static Segment[] all() {
+        return VALUES;
+    }
+
+    public String vmName() {
+        return vmName;
+    }
+
+    /**
+     * Hack symbol holding the segment base (LCL, ARG, THIS, THAT), or null for fixed segments
+     */
+    public String baseSymbol() {
+        return baseSymbol;
+    }
+
+    public boolean isPointer() {
+        return baseSymbol != null;
+    }
+
+    @Override
+    public String toString() {
+        return vmName;
+    }
+}
@@ -0,0 +1,33 @@
+package VMTranslator.vmcode;
+
+/**
+ * Fixed RAM block that replaces the stack frame of a function that can never be active twice at once.
+ * The return address sits at base, then the arguments, the locals, and the slots that keep the caller's
+ * THIS and THAT while the function has them repointed.
+ */
+public record StaticFrame(int base, int args, int locals, boolean savesThis, boolean savesThat) {
+
+    public int returnSlot() {
+        return base;
+    }
+
+    public int argument(int i) {
+        return base + 1 + i;
+    }
+
+    public int local(int i) {
+        return base + 1 + args + i;
+    }
+
+    public int thisSlot() {
+        return base + 1 + args + locals;
+    }
+
+    public int thatSlot() {
+        return thisSlot() + (savesThis ? 1 : 0);
+    }
+
+    public int size() {
+        return 1 + args + locals + (savesThis ? 1 : 0) + (savesThat ? 1 : 0);
+    }
+}
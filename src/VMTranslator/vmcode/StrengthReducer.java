@@ -0,0 +1,72 @@
+package VMTranslator.vmcode;
+
+import java.util.List;
+
+/**
+ * Replaces calls to Math.multiply and Math.divide that have a constant operand with cheaper code, assuming the
+ * OS contract: the product wraps to 16 bits and the quotient is rounded toward zero.
+ * A product becomes a MultiplyByConstant when its in-line code fits MultiplyByConstant.MAX_WORDS; a quotient by a
+ * positive power of two becomes a DivideByPowerOfTwo. Both operands constant fold to the result, and a factor of 0
+ * or 1 or a divisor of 1 or -1 needs no code at all. Division by zero keeps its call, so the OS still reports it.
+ */
+public final class StrengthReducer {
+    private int multiplies;
+    private int divides;
+
+    public int getMultiplies() {
+        return multiplies;
+    }
+
+    public int getDivides() {
+        return divides;
+    }
+
+    public List<VMinstruction> run(List<VMinstruction> instructions) {
+        return InstructionRewriter.rewrite(instructions, this::reduce);
+    }
+
+    private PushGroup reduce(PushGroup pg) {
+        if (!(pg instanceof CallGroup cg) || cg.getPushes().size() != 2 || cg.getCall().getArgs() != 2) return pg;
+        PushGroup x = cg.getPushes().get(0), y = cg.getPushes().get(1);
+        switch (cg.getFunctionName()) {
+            case "Math.multiply" -> {
+                if (x.isConstant() && y.isConstant()) return fold(pg, (short) (x.getConstant() * y.getConstant()));
+                if (!x.isConstant() && !y.isConstant()) return pg;
+                PushGroup operand = x.isConstant() ? y : x;
+                short factor = x.isConstant() ? x.getConstant() : y.getConstant();
+                if (factor == 0 && !makesCall(operand)) return constant((short) 0);
+                if (MultiplyByConstant.words(factor) > MultiplyByConstant.MAX_WORDS) return pg;
+                multiplies++;
+                return factor == 1 ? operand : new MultiplyByConstant(operand, factor);
+            }
+            case "Math.divide" -> {
+                if (!y.isConstant() || y.getConstant() == 0) return pg;
+                short divisor = y.getConstant();
+                if (x.isConstant()) return fold(pg, (short) (x.getConstant() / divisor));
+                if (divisor != -1 && (divisor < 0 || Integer.bitCount(divisor) != 1)) return pg;
+                divides++;
+                if (divisor == 1) return x;
+                if (divisor == -1) return new UnaryPushGroup(x, ArithmeticInstruction.Op.NEG);
+                return new DivideByPowerOfTwo(x, Integer.numberOfTrailingZeros(divisor));
+            }
+            default -> {
+                return pg;
+            }
+        }
+    }
+
+    //-32768 has no A-instruction of its own, and the constant code of the push groups does not expect it
+    private static PushGroup fold(PushGroup call, short value) {
+        return value == Short.MIN_VALUE ? call : constant(value);
+    }
+
+    private static boolean makesCall(PushGroup pg) {
+        boolean[] calls = {false};
+        InstructionWalker.walk(pg, node -> calls[0] |= node instanceof CallGroup);
+        return calls[0];
+    }
+
+    private static PushInstruction constant(short value) {
+        return new PushInstruction(Address.of(Segment.CONSTANT, value));
+    }
+}
@@ -0,0 +1,114 @@
+package VMTranslator.vmcode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Mutable state for translating one .vm module: the module name used for statics,
+ * the function currently being decoded, and the counters behind generated labels.
+ * Each translation owns its own context, so several can run concurrently.
+ */
+public class TranslationContext {
+    private final String moduleName; //Name of the current X.vm file
+    private String currentFunction = ""; //Name of the current function we are in
+    private int compareCounter; //Counter to generate unique compare labels
+    private final Map<String, Integer> callCounts = new HashMap<>(); //Counter to generate unique return labels
+    private Map<String, StaticFrame> staticFrames = Map.of(); //Functions whose frame lives at a fixed RAM address
+    private StaticFrame currentFrame; //Static frame of the current function, null when it uses the stack
+    private Map<String, SavedPointers> savedPointers = Map.of(); //Pointers each stack-framed function saves; all by default
+    private Set<String> callStubs = Set.of(); //Labels of the shared call stubs the program has
+    private Map<String, Integer> argumentCounts = Map.of(); //Arguments every call to a function passes; empty unless tail calls are on
+    private boolean fusedCompares = true; //Branch on compare conditions directly instead of materializing them
+
+    public TranslationContext(String moduleName) {
+        this.moduleName = moduleName;
+    }
+
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    public String getCurrentFunction() {
+        return currentFunction;
+    }
+
+    public void enterFunction(String functionName) {
+        currentFunction = functionName;
+        currentFrame = staticFrames.get(functionName);
+        callCounts.put(functionName, 0);
+    }
+
+    public void setStaticFrames(Map<String, StaticFrame> staticFrames) {
+        this.staticFrames = staticFrames;
+    }
+
+    public StaticFrame getStaticFrame(String function) {
+        return staticFrames.get(function);
+    }
+
+    public void setSavedPointers(Map<String, SavedPointers> savedPointers) {
+        this.savedPointers = savedPointers;
+    }
+
+    public SavedPointers getSavedPointers(String function) {
+        return savedPointers.getOrDefault(function, SavedPointers.BOTH);
+    }
+
+    public void setCallStubs(Set<String> callStubs) {
+        this.callStubs = callStubs;
+    }
+
+    public boolean hasCallStub(String label) {
+        return callStubs.contains(label);
+    }
+
+    public Set<String> getCallStubs() {
+        return callStubs;
+    }
+
+    public void setFusedCompares(boolean fusedCompares) {
+        this.fusedCompares = fusedCompares;
+    }
+
+    public boolean hasFusedCompares() {
+        return fusedCompares;
+    }
+
+    public void setArgumentCounts(Map<String, Integer> argumentCounts) {
+        this.argumentCounts = argumentCounts;
+    }
+
+    public int getArgumentCount(String function) {
+        return argumentCounts.getOrDefault(function, -1);
+    }
+
+    public StaticFrame getCurrentFrame() {
+        return currentFrame;
+    }
+
+    //RAM address of a local or argument of the current function when its frame is static, otherwise null
+    public Integer fixedAddress(Address address) {
+        if (currentFrame == null) return null;
+        return switch (address.getSegment()) {
+            case LOCAL -> currentFrame.local(address.getIndex());
+            case ARGUMENT -> currentFrame.argument(address.getIndex());
+            default -> null;
+        };
+    }
+
+    public String nextReturnLabel() {
+        int callCount = callCounts.getOrDefault(currentFunction, 0);
+        callCounts.put(currentFunction, callCount + 1);
+        return currentFunction + ".ret." + callCount;
+    }
+
+    //VM labels are local to their function, so qualify them the way the standard translator does
+    public String scopedLabel(String label) {
+        return currentFunction + "$" + label;
+    }
+
+    public int nextCompareId() {
+        return compareCounter++;
+    }
+}
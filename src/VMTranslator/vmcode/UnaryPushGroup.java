@@ -1,7 +1,5 @@
 package VMTranslator.vmcode;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
 
 public final class UnaryPushGroup extends PushGroup {
@@ -15,45 +13,43 @@ public final class UnaryPushGroup extends PushGroup {
     }
 
     @Override
-    public List<String> decode() throws Exception {
-        List<String> asm = new ArrayList<>();
+    public void decode(AsmSink asm, TranslationContext ctx) throws Exception {
         if (isConstant()) {
             short constant = getConstant();
             if (Math.abs(constant) <= 1) {
-                return new ArrayList<>(List.of("@SP", "AM=M+1", "A=A-1", "M=" + constant));
+                asm.addAll("@SP", "AM=M+1", "A=A-1", "M=" + constant);
             }
             else{
-                asm.addAll(setD());
-                asm.addAll(List.of("@SP", "AM=M+1", "A=A-1", "M=D"));
-                return asm;
+                setD(asm, ctx);
+                asm.addAll(AsmSink.PUSH_D);
             }
+            return;
         }
-        List<String> code = new ArrayList<>(inner.decode());
-        code.addAll(op.emit(false));
-        return code;
+        inner.decode(asm, ctx);
+        op.emit(asm, false, ctx);
     }
 
     @Override
-    List<String> setD() throws Exception {
+    void setD(AsmSink asm, TranslationContext ctx) throws Exception {
         // Constant folding
         if (isConstant()) {
-            PushInstruction p = new PushInstruction(new Address("constant", getConstant()));
-            return p.setD();
+            PushInstruction p = new PushInstruction(Address.of(Segment.CONSTANT, getConstant()));
+            p.setD(asm, ctx);
+            return;
         }
 
         // Optimize wrapped push
         if (isWrappedPush()) {
             if (inner instanceof PushInstruction pi) {
-                List<String> asm = new ArrayList<>(pi.getAddress().resolveAddressTo("A"));
+                asm.addAll(pi.getAddress().resolveAddressTo("A", ctx));
                 asm.add("D=" + (op == ArithmeticInstruction.Op.NEG ? "-" : "!") + "M");
-                return asm;
+                return;
             }
         }
 
         // General case
-        List<String> asm = new ArrayList<>(inner.setD());
+        inner.setD(asm, ctx);
         asm.add(op.onD());
-        return asm;
     }
 
     /**
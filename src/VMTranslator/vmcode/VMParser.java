@@ -1,18 +1,31 @@
 package VMTranslator.vmcode;
 
+import VMTranslator.Metrics;
+
 import java.util.*;
 
 public class VMParser {
-    public static String moduleName; //Name of the current X.vm file
-    public static String currentFunction = "";//Name of the current function we are in
-    private final List<String> lines;
-    public Map<String, Integer> funcMapping = new HashMap<>();
-    public Integer compNum; //Counter to generate unique labels
+    private static final Address POINTER_1 = Address.of(Segment.POINTER, (short) 1);
+    private static final Address TEMP_0 = Address.of(Segment.TEMP, (short) 0);
+    private static final Address THAT_0 = Address.of(Segment.THAT, (short) 0);
+    private final CharSequence source; //Raw text of the .vm file
+    private final TranslationContext context; //Label and static-name state for decoding this module
+
+    public VMParser(CharSequence source, String moduleName) {
+        this(source, new TranslationContext(moduleName));
+    }
+
+    public VMParser(CharSequence source, TranslationContext context) {
+        this.source = source;
+        this.context = context;
+    }
 
     public VMParser(List<String> lines, String moduleName) {
-        this.lines = lines;
-        VMParser.moduleName = moduleName;
-        compNum = 0;
+        this(String.join("\n", lines), moduleName);
+    }
+
+    public TranslationContext getContext() {
+        return context;
     }
 
 
@@ -30,18 +43,30 @@ public class VMParser {
 
 
     public List<VMinstruction> parse() throws Exception {
-        List<VMinstruction> flat = new ArrayList<>();
-        //flat.add(new CallInstruction("Sys.init", 0, funcMapping, "global"));
-        for (String line : removeComments(lines)) {
-            flat.add(parseLine(line));
+        String module = context.getModuleName();
+        List<VMinstruction> flat;
+        try (Metrics.Phase phase = Metrics.phase("vm.tokenize", module)) {
+            VMTokenizer tokenizer = new VMTokenizer(source);
+            flat = tokenizer.tokenize();
+            phase.items("vm.lines", tokenizer.getLineCount());
+        }
+
+        List<VMinstruction> grouped;
+        try (Metrics.Phase phase = Metrics.phase("vm.group", module)) {
+            grouped = group(flat);
+            phase.items("vm.instructions", flat.size());
         }
-        //return flat;
-        return group(flat);
+        if (Metrics.isEnabled()) {
+            InstructionWalker.walk(grouped, node -> Metrics.count("groups." + node.getClass().getSimpleName(), 1));
+        }
+        return grouped;
     }
 
 // ─────────────────── helper ───────────────────
 
-    private List<VMinstruction> group(List<VMinstruction> work) throws Exception {
+    //Second half of parse(), exposed so the grouping pass can be measured on its own.
+    //Grouping attaches values to the ReturnInstructions it is given, so pass freshly tokenized input.
+    public List<VMinstruction> group(List<VMinstruction> work) throws Exception {
         Deque<VMinstruction> todo = new ArrayDeque<>(work); // tail == top
         Deque<VMinstruction> stack = new ArrayDeque<>();
         List<VMinstruction> fuck = new ArrayList<>();
@@ -51,7 +76,7 @@ public class VMParser {
                 case CallGroup c -> stack.addLast(c);
 
                 case PushGroup pg -> {
-                    if (!stack.isEmpty() && stack.getLast() instanceof PushPopPair PPP && PPP.getPopAddress().equals(new Address("pointer", (short) 1)) && pg instanceof PushInstruction pi && pi.equals(new PushInstruction(new Address("that", (short) 0)))) {
+                    if (!stack.isEmpty() && stack.getLast() instanceof PushPopPair PPP && PPP.getPopAddress() == POINTER_1 && pg instanceof PushInstruction pi && pi.getAddress() == THAT_0) {
                         Dereference d = new Dereference(PPP.getPush());
                         stack.removeLast();
                         stack.addLast(d);
@@ -66,12 +91,12 @@ public class VMParser {
                     }
 
                     // === Pattern A: pop temp 0 → pop pointer 1 → (later) push temp 0 + pop that 0
-                    if (pop.getAddress().equals(new Address("pointer", (short) 1))) {
+                    if (pop.getAddress() == POINTER_1) {
                         if (stack.size() >= 2) {
                             VMinstruction tempPair = stack.removeLast();  // should be PushPopPair to temp 0
                             VMinstruction destExpr = stack.removeLast();  // should be PushGroup (dest address)
 
-                            if (tempPair instanceof PushPopPair ppp && ppp.getPopAddress().equals(new Address("temp", (short) 0)) && destExpr instanceof PushGroup dest) {
+                            if (tempPair instanceof PushPopPair ppp && ppp.getPopAddress() == TEMP_0 && destExpr instanceof PushGroup dest) {
 
                                 // Store pending writer for use when we later see: push temp 0 → pop that 0
                                 stack.addLast(new PushWriter(ppp.getPush(), dest));
@@ -85,7 +110,7 @@ public class VMParser {
                     }
 
                     // === Pattern B: push → pop pointer 1 → pop that 0
-                    if (stack.peekLast() instanceof PushPopPair ppp && ppp.getPopAddress().equals(new Address("pointer", (short) 1)) && pop.getAddress().equals(new Address("that", (short) 0))) {
+                    if (stack.peekLast() instanceof PushPopPair ppp && ppp.getPopAddress() == POINTER_1 && pop.getAddress() == THAT_0) {
 
                         PushPopPair ptrSet = (PushPopPair) stack.removeLast();
 
@@ -98,17 +123,14 @@ public class VMParser {
                         }
                     }
 
-                    // === Pattern C: we previously added a PushWriter; now we expect push temp 0 + pop that 0
-                    if (pop.getAddress().equals(new Address("that", (short) 0)) && stack.peekLast() instanceof PushWriter pw && todo.peekFirst() instanceof PushInstruction tempPush && tempPush.getAddress().equals(new Address("temp", (short) 0))) {
-
-                        // Consume temp push from todo
-                        todo.removeFirst();
+                    // === Pattern C: we previously added a PushWriter; now we see push temp 0 + pop that 0.
+                    // The writer already stores the value, so the pair is dropped instead of writing temp 0 through a stale THAT
+                    if (pop.getAddress() == THAT_0 && stack.size() >= 2 && stack.peekLast() instanceof PushInstruction tempPush && tempPush.getAddress() == TEMP_0) {
                         stack.removeLast();
-
-                        // Rebuild PushWriter with final value now known
-                        PushWriter completed = new PushWriter(tempPush, pw.getDest());
-                        stack.addLast(completed);
-                        break;
+                        if (stack.peekLast() instanceof PushWriter) {
+                            break;
+                        }
+                        stack.addLast(tempPush);
                     }
 
                     // === Default: push + pop → PushPopPair
@@ -131,7 +153,7 @@ public class VMParser {
                                 stack.addLast(u.getInner());
                             } else if ((ai.getOp() == ArithmeticInstruction.Op.NOT && u.getOp() == ArithmeticInstruction.Op.NEG) || (ai.getOp() == ArithmeticInstruction.Op.NEG && u.getOp() == ArithmeticInstruction.Op.NOT)) {
                                 // neg(not(x)) → x + 1, not(neg(x)) → x - 1
-                                PushInstruction one = new PushInstruction(new Address("constant", (short) 1));
+                                PushInstruction one = new PushInstruction(Address.of(Segment.CONSTANT, (short) 1));
                                 ArithmeticInstruction.Op binOp = (ai.getOp() == ArithmeticInstruction.Op.NOT) ? ArithmeticInstruction.Op.SUB : ArithmeticInstruction.Op.ADD;
                                 stack.addLast(new BinaryPushGroup(u.getInner(), one, binOp));
                             } else {
@@ -175,7 +197,6 @@ public class VMParser {
                 case FunctionInstruction f -> {
                     fuck.addAll(stack);
                     stack.clear();
-                    VMParser.currentFunction = f.getFuncName();
                     fuck.addLast(f);
                 }
 
@@ -189,78 +210,4 @@ public class VMParser {
         fuck.addAll(stack);
         return new ArrayList<>(fuck);
     }
-
-    private VMinstruction parseLine(String line) {
-        String[] tokens = line.split("\\s+");
-        String cmd = tokens[0];
-
-        switch (cmd) {
-            case "push", "pop" -> {
-                requireLength(tokens, 3, line);
-                Address address = new Address(tokens[1], (short) Integer.parseInt(tokens[2]));
-                return cmd.equals("push") ? new PushInstruction(address) : new PopInstruction(address);
-            }
-            case "label" -> {
-                requireLength(tokens, 2, line);
-                return new LabelInstruction(tokens[1]);
-            }
-            case "goto" -> {
-                requireLength(tokens, 2, line);
-                return new GotoInstruction(tokens[1]);
-            }
-            case "if-goto" -> {
-                requireLength(tokens, 2, line);
-                return new IfGotoInstruction(tokens[1]);
-            }
-            case "function" -> {
-                requireLength(tokens, 3, line);
-                VMParser.currentFunction = tokens[1];
-                return new FunctionInstruction(tokens[1], Integer.parseInt(tokens[2]), funcMapping);
-            }
-            case "call" -> {
-                requireLength(tokens, 3, line);
-                return new CallInstruction(tokens[1], Integer.parseInt(tokens[2]), funcMapping);
-            }
-            case "return" -> {
-                requireLength(tokens, 1, line);
-                return new ReturnInstruction(null);
-            }
-            case "add", "sub", "neg", "and", "or", "not", "gt", "lt", "eq" -> {
-                requireLength(tokens, 1, line);
-
-                // map the lowercase VM keyword to the enum constant
-                ArithmeticInstruction.Op op = switch (cmd) {
-                    case "add" -> ArithmeticInstruction.Op.ADD;
-                    case "sub" -> ArithmeticInstruction.Op.SUB;
-                    case "and" -> ArithmeticInstruction.Op.AND;
-                    case "or" -> ArithmeticInstruction.Op.OR;
-                    case "neg" -> ArithmeticInstruction.Op.NEG;
-                    case "not" -> ArithmeticInstruction.Op.NOT;
-                    case "gt" -> ArithmeticInstruction.Op.GT;
-                    case "eq" -> ArithmeticInstruction.Op.EQ;
-                    case "lt" -> ArithmeticInstruction.Op.LT;
-                    default -> throw new IllegalStateException("Unhandled op: " + cmd);
-                };
-
-                return new ArithmeticInstruction(op);
-            }
-
-            default -> throw new IllegalArgumentException("Unknown command: " + line);
-        }
-    }
-
-    private void requireLength(String[] tokens, int expected, String line) {
-        if (tokens.length != expected)
-            throw new IllegalArgumentException("Expected " + expected + " tokens but got " + tokens.length + " for line: " + line);
-    }
-
-
-    private List<String> removeComments(List<String> rawLines) {
-        List<String> cleaned = new ArrayList<>();
-        for (String line : rawLines) {
-            String noComment = line.split("//", 2)[0].trim();
-            if (!noComment.isEmpty()) cleaned.add(noComment);
-        }
-        return cleaned;
-    }
 }
@@ -0,0 +1,161 @@
+package VMTranslator.vmcode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hand-written scanner over raw VM source text.
+ * Commands and segment names are matched in place and numbers are parsed straight from the characters,
+ * so the only Strings created are label and function names.
+ */
+public final class VMTokenizer {
+    private static final Segment[] SEGMENTS = Segment.values();
+    private static final String[] OP_KEYWORDS = {"add", "sub", "neg", "and", "or", "not", "gt", "lt", "eq"};
+    private static final ArithmeticInstruction.Op[] OPS = {ArithmeticInstruction.Op.ADD, ArithmeticInstruction.Op.SUB, ArithmeticInstruction.Op.NEG, ArithmeticInstruction.Op.AND, ArithmeticInstruction.Op.OR, ArithmeticInstruction.Op.NOT, ArithmeticInstruction.Op.GT, ArithmeticInstruction.Op.LT, ArithmeticInstruction.Op.EQ};
+
+    private final CharSequence src;
+    //Start and end offsets of the tokens on the current line; only the first 3 are kept
+    private final int[] tokenStart = new int[3];
+    private final int[] tokenEnd = new int[3];
+    private int tokenCount;
+    private int lineCount;
+
+    public VMTokenizer(CharSequence src) {
+        this.src = src;
+    }
+
+    public List<VMinstruction> tokenize() {
+        List<VMinstruction> flat = new ArrayList<>();
+        int n = src.length();
+        int pos = 0;
+        while (pos < n) {
+            int lineEnd = pos;
+            while (lineEnd < n && src.charAt(lineEnd) != '\n') lineEnd++;
+
+            int codeEnd = commentStart(pos, lineEnd);
+            if (splitTokens(pos, codeEnd)) {
+                flat.add(parseLine(pos, codeEnd));
+            }
+            pos = lineEnd + 1;
+            lineCount++;
+        }
+        return flat;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    private int commentStart(int start, int end) {
+        for (int i = start; i + 1 < end; i++) {
+            if (src.charAt(i) == '/' && src.charAt(i + 1) == '/') return i;
+        }
+        return end;
+    }
+
+    //Records the token offsets of src[start, end) and returns whether the line holds any code
+    private boolean splitTokens(int start, int end) {
+        tokenCount = 0;
+        int i = start;
+        while (true) {
+            while (i < end && src.charAt(i) <= ' ') i++;
+            if (i >= end) break;
+            int tokStart = i;
+            while (i < end && src.charAt(i) > ' ') i++;
+            if (tokenCount < tokenStart.length) {
+                tokenStart[tokenCount] = tokStart;
+                tokenEnd[tokenCount] = i;
+            }
+            tokenCount++;
+        }
+        return tokenCount > 0;
+    }
+
+    private VMinstruction parseLine(int lineStart, int lineEnd) {
+        if (tokenIs(0, "push") || tokenIs(0, "pop")) {
+            requireLength(3, lineStart, lineEnd);
+            Address address = Address.of(segment(1), (short) number(2));
+            return tokenIs(0, "push") ? new PushInstruction(address) : new PopInstruction(address);
+        }
+        for (int i = 0; i < OP_KEYWORDS.length; i++) {
+            if (tokenIs(0, OP_KEYWORDS[i])) {
+                requireLength(1, lineStart, lineEnd);
+                return new ArithmeticInstruction(OPS[i]);
+            }
+        }
+        if (tokenIs(0, "call")) {
+            requireLength(3, lineStart, lineEnd);
+            return new CallInstruction(token(1), number(2));
+        }
+        if (tokenIs(0, "label")) {
+            requireLength(2, lineStart, lineEnd);
+            return new LabelInstruction(token(1));
+        }
+        if (tokenIs(0, "if-goto")) {
+            requireLength(2, lineStart, lineEnd);
+            return new IfGotoInstruction(token(1));
+        }
+        if (tokenIs(0, "goto")) {
+            requireLength(2, lineStart, lineEnd);
+            return new GotoInstruction(token(1));
+        }
+        if (tokenIs(0, "function")) {
+            requireLength(3, lineStart, lineEnd);
+            return new FunctionInstruction(token(1), number(2));
+        }
+        if (tokenIs(0, "return")) {
+            requireLength(1, lineStart, lineEnd);
+            return new ReturnInstruction(null);
+        }
+        throw new IllegalArgumentException("Unknown command: " + line(lineStart, lineEnd));
+    }
+
+    private boolean tokenIs(int t, String keyword) {
+        int start = tokenStart[t];
+        if (tokenEnd[t] - start != keyword.length()) return false;
+        for (int i = 0; i < keyword.length(); i++) {
+            if (src.charAt(start + i) != keyword.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private Segment segment(int t) {
+        for (Segment segment : SEGMENTS) {
+            if (tokenIs(t, segment.vmName())) return segment;
+        }
+        throw new IllegalArgumentException("Unknown segment: " + token(t));
+    }
+
+    private int number(int t) {
+        int i = tokenStart[t], end = tokenEnd[t];
+        boolean negative = false;
+        if (src.charAt(i) == '-' || src.charAt(i) == '+') {
+            negative = src.charAt(i) == '-';
+            i++;
+        }
+        if (i == end) throw new NumberFormatException("For input string: \"" + token(t) + "\"");
+        // Accumulate negatively, as Integer.parseInt does, so that -2147483648 parses and anything past it is rejected
+        long limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = src.charAt(i) - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException("For input string: \"" + token(t) + "\"");
+            value = value * 10 - digit;
+            if (value < limit) throw new NumberFormatException("For input string: \"" + token(t) + "\"");
+        }
+        return (int) (negative ? value : -value);
+    }
+
+    private String token(int t) {
+        return src.subSequence(tokenStart[t], tokenEnd[t]).toString();
+    }
+
+    private String line(int start, int end) {
+        return src.subSequence(start, end).toString().trim();
+    }
+
+    private void requireLength(int expected, int lineStart, int lineEnd) {
+        if (tokenCount != expected)
+            throw new IllegalArgumentException("Expected " + expected + " tokens but got " + tokenCount + " for line: " + line(lineStart, lineEnd));
+    }
+}
@@ -1,7 +1,5 @@
 package VMTranslator.vmcode;
 
-import java.util.List;
-
 public interface VMinstruction {
-    List<String> decode() throws Exception;
+    void decode(AsmSink asm, TranslationContext ctx) throws Exception;
 }
@@ -0,0 +1,321 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Writes a synthetic program shaped like the output of the standard Jack compiler, for scaling tests.
+ * Every class gets a constructor and a chain of functions and methods; each function calls the next one and
+ * Main.main calls the head of every chain, so the decompiler sees every function as used.
+ * Calls only go to later functions of the same class, so the call graph has no cycles.
+ * <p>
+ * Usage: java bench.CorpusGenerator [options] <output directory>
+ * <pre>
+ *   --classes N     number of classes (default 20)
+ *   --lines N       keep adding classes until the program has at least N lines (overrides --classes)
+ *   --functions N   functions per class (default 20)
+ *   --statements N  statements per function, nested ones included (default 30)
+ *   --depth N       maximum expression nesting depth (default 3)
+ *   --nesting N     maximum if/while nesting depth (default 2)
+ *   --string N      characters per string literal, each one a String.appendChar call (default 8)
+ *   --arrays N      percentage of assignments that are array writes (default 15)
+ *   --seed N        random seed; the same options and seed always give the same program (default 1)
+ * </pre>
+ */
+public class CorpusGenerator {
+    private static final String[] BINARY_OPS = {"add", "sub", "and", "or", "lt", "gt", "eq"};
+    private static final int STATICS = 4;
+    private static final int FIELDS = 4;
+
+    private int classes = 20;
+    private long lines = -1;
+    private int functions = 20;
+    private int statements = 30;
+    private int depth = 3;
+    private int nesting = 2;
+    private int stringLength = 8;
+    private int arrayPercent = 15;
+    private long seed = 1;
+
+    private Random random;
+
+    // Signatures of the class being generated
+    private String className;
+    private int[] numArgs;
+    private boolean[] isMethod;
+    private boolean[] isVoid;
+
+    // State of the function being generated
+    private StringBuilder out;
+    private int current;
+    private int numLocals;
+    private int statementBudget;
+    private int ifCounter;
+    private int whileCounter;
+
+    public static void main(String[] args) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator();
+        String dir = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                generator.set(args[i].substring(2), Long.parseLong(args[++i]));
+            } else if (dir == null) {
+                dir = args[i];
+            } else {
+                dir = null;
+                break;
+            }
+        }
+        if (dir == null) {
+            System.err.println("Usage: java bench.CorpusGenerator [--classes N | --lines N] [--functions N] [--statements N] [--depth N] [--nesting N] [--string N] [--arrays N] [--seed N] <output directory>");
+            System.exit(1);
+        }
+
+        File outputDir = new File(dir);
+        outputDir.mkdirs();
+        long written = generator.generate(outputDir);
+        System.out.println("Wrote " + written + " lines to " + outputDir);
+    }
+
+    private void set(String option, long value) {
+        switch (option) {
+            case "classes" -> classes = (int) value;
+            case "lines" -> lines = value;
+            case "functions" -> functions = (int) Math.max(1, value);
+            case "statements" -> statements = (int) Math.max(1, value);
+            case "depth" -> depth = (int) Math.max(0, value);
+            case "nesting" -> nesting = (int) Math.max(0, value);
+            case "string" -> stringLength = (int) Math.max(0, value);
+            case "arrays" -> arrayPercent = (int) value;
+            case "seed" -> seed = value;
+            default -> throw new IllegalArgumentException("Unknown option: --" + option);
+        }
+    }
+
+    /**
+     * Writes Sys.vm, Main.vm and the generated classes into outputDir and returns the total line count
+     */
+    public long generate(File outputDir) throws IOException {
+        random = new Random(seed);
+        long total = 0;
+
+        StringBuilder main = new StringBuilder("function Main.main 0\n");
+        int count = 0;
+        while (lines >= 0 ? total < lines : count < classes) {
+            String name = "Class" + count++;
+            String source = generateClass(name);
+            Files.writeString(new File(outputDir, name + ".vm").toPath(), source);
+            total += source.lines().count();
+
+            // Function 0 is always a void function
+            for (int a = 0; a < numArgs[0]; a++) main.append("push constant ").append(a).append('\n');
+            main.append("call ").append(name).append(".f0 ").append(numArgs[0]).append("\npop temp 0\n");
+        }
+        main.append("push constant 0\nreturn\n");
+
+        String sys = "function Sys.init 0\ncall Main.main 0\npop temp 0\nlabel WHILE_EXP0\npush constant 0\nnot\nnot\nif-goto WHILE_END0\ngoto WHILE_EXP0\nlabel WHILE_END0\npush constant 0\nreturn\n";
+        Files.writeString(new File(outputDir, "Main.vm").toPath(), main);
+        Files.writeString(new File(outputDir, "Sys.vm").toPath(), sys);
+        return total + main.toString().lines().count() + sys.lines().count();
+    }
+
+    private String generateClass(String name) {
+        className = name;
+        numArgs = new int[functions];
+        isMethod = new boolean[functions];
+        isVoid = new boolean[functions];
+        for (int i = 0; i < functions; i++) {
+            isMethod[i] = i % 2 == 1;
+            isVoid[i] = i % 3 == 0;
+            numArgs[i] = random.nextInt(4) + (isMethod[i] ? 1 : 0);
+        }
+
+        out = new StringBuilder();
+        // Constructor: allocate the fields and initialise every one of them
+        out.append("function ").append(name).append(".new 0\npush constant ").append(FIELDS).append("\ncall Memory.alloc 1\npop pointer 0\n");
+        for (int f = 0; f < FIELDS; f++) out.append("push constant ").append(f).append("\npop this ").append(f).append('\n');
+        out.append("push pointer 0\nreturn\n");
+
+        for (int i = 0; i < functions; i++) generateFunction(i);
+        return out.toString();
+    }
+
+    // local 0 holds an object of this class, local 1 an array, the remaining locals are ints
+    private void generateFunction(int index) {
+        current = index;
+        numLocals = 3 + random.nextInt(4);
+        statementBudget = statements;
+        ifCounter = 0;
+        whileCounter = 0;
+
+        out.append("function ").append(className).append(".f").append(index).append(' ').append(numLocals).append('\n');
+        if (isMethod[index]) out.append("push argument 0\npop pointer 0\n");
+        out.append("call ").append(className).append(".new 0\npop local 0\n");
+        out.append("push constant 64\ncall Array.new 1\npop local 1\n");
+
+        // Keep the chain going so that every function is called
+        if (index + 1 < functions) {
+            call(index + 1, depth);
+            out.append(isVoid[index + 1] ? "pop temp 0\n" : "pop local " + (numLocals - 1) + "\n");
+        }
+
+        while (statementBudget > 0) statement(0);
+
+        if (isVoid[index]) {
+            out.append("push constant 0\n");
+        } else {
+            expression(depth);
+        }
+        out.append("return\n");
+    }
+
+    private void statement(int level) {
+        statementBudget--;
+        int kind = random.nextInt(level < nesting ? 10 : 7);
+        switch (kind) {
+            case 0, 1, 2, 3 -> assignment();
+            case 4, 5 -> doCall();
+            case 6 -> printString();
+            case 7, 8 -> ifStatement(level);
+            default -> whileStatement(level);
+        }
+    }
+
+    private void assignment() {
+        if (random.nextInt(100) < arrayPercent) {
+            // let local_1[index] = value
+            expression(depth - 1);
+            out.append("push local 1\nadd\n");
+            expression(depth);
+            out.append("pop temp 0\npop pointer 1\npush temp 0\npop that 0\n");
+            return;
+        }
+        expression(depth);
+        int target = random.nextInt(isMethod[current] ? 3 : 2);
+        switch (target) {
+            case 0 -> out.append("pop local ").append(2 + random.nextInt(numLocals - 2)).append('\n');
+            case 1 -> out.append("pop static ").append(random.nextInt(STATICS)).append('\n');
+            default -> out.append("pop this ").append(random.nextInt(FIELDS)).append('\n');
+        }
+    }
+
+    private void doCall() {
+        if (current + 1 >= functions) {
+            printString();
+            return;
+        }
+        call(current + 1 + random.nextInt(functions - current - 1), depth - 1);
+        out.append("pop temp 0\n");
+    }
+
+    private void printString() {
+        stringLiteral();
+        out.append("call Output.printString 1\npop temp 0\n");
+    }
+
+    private void stringLiteral() {
+        out.append("push constant ").append(stringLength).append("\ncall String.new 1\n");
+        for (int c = 0; c < stringLength; c++) {
+            out.append("push constant ").append(32 + random.nextInt(95)).append("\ncall String.appendChar 2\n");
+        }
+    }
+
+    private void ifStatement(int level) {
+        int id = ifCounter++;
+        boolean hasElse = random.nextBoolean();
+        expression(depth);
+        out.append("if-goto IF_TRUE").append(id).append("\ngoto IF_FALSE").append(id).append("\nlabel IF_TRUE").append(id).append('\n');
+        block(level + 1);
+        if (hasElse) out.append("goto IF_END").append(id).append('\n');
+        out.append("label IF_FALSE").append(id).append('\n');
+        if (hasElse) {
+            block(level + 1);
+            out.append("label IF_END").append(id).append('\n');
+        }
+    }
+
+    private void whileStatement(int level) {
+        int id = whileCounter++;
+        out.append("label WHILE_EXP").append(id).append('\n');
+        expression(depth);
+        out.append("not\nif-goto WHILE_END").append(id).append('\n');
+        block(level + 1);
+        out.append("goto WHILE_EXP").append(id).append("\nlabel WHILE_END").append(id).append('\n');
+    }
+
+    private void block(int level) {
+        int size = 1 + random.nextInt(3);
+        for (int s = 0; s < size && statementBudget > 0; s++) statement(level);
+    }
+
+    private void expression(int remaining) {
+        int kind = remaining <= 0 ? 0 : random.nextInt(8);
+        switch (kind) {
+            case 0, 1 -> term();
+            case 2, 3, 4 -> {
+                expression(remaining - 1);
+                expression(remaining - 1);
+                out.append(BINARY_OPS[random.nextInt(BINARY_OPS.length)]).append('\n');
+            }
+            case 5 -> {
+                expression(remaining - 1);
+                expression(remaining - 1);
+                out.append(random.nextBoolean() ? "call Math.multiply 2\n" : "call Math.divide 2\n");
+            }
+            case 6 -> {
+                expression(remaining - 1);
+                out.append(random.nextBoolean() ? "neg\n" : "not\n");
+            }
+            default -> {
+                // local_1[index]
+                expression(remaining - 1);
+                out.append("push local 1\nadd\npop pointer 1\npush that 0\n");
+            }
+        }
+        // Calls to later non-void functions of the class
+        if (remaining > 0 && random.nextInt(6) == 0) {
+            int callee = nonVoidCallee();
+            if (callee >= 0) {
+                call(callee, remaining - 1);
+                out.append(BINARY_OPS[random.nextInt(BINARY_OPS.length)]).append('\n');
+            }
+        }
+    }
+
+    private void term() {
+        switch (random.nextInt(isMethod[current] ? 6 : 5)) {
+            case 0 -> out.append("push constant ").append(random.nextInt(1000)).append('\n');
+            case 1 -> out.append(random.nextBoolean() ? "push constant 0\nnot\n" : "push constant 0\n");
+            case 2 -> out.append("push local ").append(2 + random.nextInt(numLocals - 2)).append('\n');
+            case 3 -> {
+                int args = numArgs[current] - (isMethod[current] ? 1 : 0);
+                if (args > 0) {
+                    out.append("push argument ").append(random.nextInt(args) + (isMethod[current] ? 1 : 0)).append('\n');
+                } else {
+                    out.append("push constant ").append(random.nextInt(1000)).append('\n');
+                }
+            }
+            case 4 -> out.append("push static ").append(random.nextInt(STATICS)).append('\n');
+            default -> out.append("push this ").append(random.nextInt(FIELDS)).append('\n');
+        }
+    }
+
+    private int nonVoidCallee() {
+        if (current + 1 >= functions) return -1;
+        int callee = current + 1 + random.nextInt(functions - current - 1);
+        return isVoid[callee] ? -1 : callee;
+    }
+
+    private void call(int callee, int argDepth) {
+        int first = 0;
+        if (isMethod[callee]) {
+            // Methods of the same class are called on this, or on the object in local 0 from a function
+            out.append(isMethod[current] ? "push pointer 0\n" : "push local 0\n");
+            first = 1;
+        }
+        for (int a = first; a < numArgs[callee]; a++) expression(argDepth);
+        out.append("call ").append(className).append(".f").append(callee).append(' ').append(numArgs[callee]).append('\n');
+    }
+}
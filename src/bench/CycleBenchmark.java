@@ -0,0 +1,135 @@
+package bench;
+
+import VMTranslator.HackCpu;
+import VMTranslator.RomOverflowException;
+import VMTranslator.VMTranslator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Translates fixed workloads from the bundled corpora, runs them on HackCpu and compares the executed cycle counts
+ * with a committed baseline. Fails when a workload gets slower than the threshold allows or draws a different
+ * screen than the baseline run did.
+ * <p>
+ * Usage: java bench.CycleBenchmark [--baseline file] [--threshold fraction] [--update]
+ * (run from the project root; the baseline defaults to benchmarks/cycles.baseline and the threshold to 0.02)
+ */
+public class CycleBenchmark {
+    private record Workload(String name, String dir, String stopAt, int stopCount, long maxCycles, String keys) {
+    }
+
+    private record Result(long cycles, int screenHash) {
+    }
+
+    private static final List<Workload> WORKLOADS = List.of(
+            new Workload("MY_OS/hello", "MY_OS", "Sys.halt", 1, 50_000_000L, ""),
+            // Self, mutual and argument-permuting tail calls and static-framed helpers around recursion,
+            // each result drawn on its own screen row
+            new Workload("frames/calls", "benchmarks/frames", "Sys.halt", 1, 50_000_000L, ""),
+            // Board, book and UI set-up, up to the first time the game waits for a key
+            new Workload("Chess/startup", "Chess", "Keyboard.readChar", 1, 500_000_000L, ""));
+
+    public static void main(String[] args) throws Exception {
+        File baselineFile = new File("benchmarks/cycles.baseline");
+        double threshold = 0.02;
+        boolean update = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--baseline" -> baselineFile = new File(args[++i]);
+                case "--threshold" -> threshold = Double.parseDouble(args[++i]);
+                case "--update" -> update = true;
+                default -> {
+                    System.err.println("Usage: java bench.CycleBenchmark [--baseline file] [--threshold fraction] [--update]");
+                    System.exit(1);
+                }
+            }
+        }
+
+        Map<String, Result> baseline = baselineFile.exists() ? readBaseline(baselineFile) : new TreeMap<>();
+        Map<String, Result> results = new LinkedHashMap<>();
+        boolean failed = false;
+
+        for (Workload workload : WORKLOADS) {
+            Result result;
+            try {
+                result = run(workload);
+            } catch (RomOverflowException e) {
+                System.out.printf("%-16s skipped: %s%n", workload.name, e.getMessage());
+                continue;
+            }
+            results.put(workload.name, result);
+
+            Result before = baseline.get(workload.name);
+            String verdict;
+            if (before == null) {
+                verdict = "new";
+            } else if (before.screenHash != result.screenHash) {
+                verdict = String.format("FAIL: screen differs from baseline (%08x, was %08x)", result.screenHash, before.screenHash);
+                failed = true;
+            } else if (result.cycles > before.cycles * (1 + threshold)) {
+                verdict = String.format("FAIL: %+.2f%% cycles (baseline %d)", 100.0 * (result.cycles - before.cycles) / before.cycles, before.cycles);
+                failed = true;
+            } else {
+                verdict = String.format("ok, %+.2f%% cycles (baseline %d)", 100.0 * (result.cycles - before.cycles) / before.cycles, before.cycles);
+            }
+            System.out.printf("%-16s %12d cycles  %s%n", workload.name, result.cycles, verdict);
+        }
+
+        if (update) {
+            // Workloads that were skipped keep their previous entry
+            baseline.forEach(results::putIfAbsent);
+            writeBaseline(baselineFile, results);
+            System.out.println("Baseline written to " + baselineFile);
+        } else if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static Result run(Workload workload) throws Exception {
+        File[] vmFiles = new File(workload.dir).listFiles((d, n) -> n.endsWith(".vm"));
+        if (vmFiles == null || vmFiles.length == 0) throw new IOException("No .vm files found in " + workload.dir);
+        Arrays.sort(vmFiles);
+
+        File tmp = Files.createTempDirectory("cycles").toFile();
+        File program = new File(tmp, "program.hack");
+        try {
+            // Only a program that does not fit the ROM is skipped; any other failure fails the run
+            new VMTranslator(vmFiles, program, Runtime.getRuntime().availableProcessors(), VMTranslator.OutputFormat.HACK).translate();
+
+            HackCpu cpu = HackCpu.load(program);
+            Integer stop = cpu.getLabel(workload.stopAt);
+            if (stop == null) throw new IllegalStateException(workload.name + ": no label " + workload.stopAt);
+            cpu.setKeys(workload.keys, 0, 50_000, 50_000);
+            if (!cpu.run(workload.maxCycles, stop, workload.stopCount)) {
+                throw new IllegalStateException(workload.name + ": did not reach " + workload.stopAt + " within " + workload.maxCycles + " cycles");
+            }
+            return new Result(cpu.getCycles(), cpu.screenHash());
+        } finally {
+            for (File f : Objects.requireNonNull(tmp.listFiles())) f.delete();
+            tmp.delete();
+        }
+    }
+
+    //One "name cycles screen-hash" line per workload
+    private static Map<String, Result> readBaseline(File file) throws IOException {
+        Map<String, Result> baseline = new TreeMap<>();
+        for (String line : Files.readAllLines(file.toPath())) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            String[] parts = line.trim().split("\\s+");
+            baseline.put(parts[0], new Result(Long.parseLong(parts[1]), Integer.parseUnsignedInt(parts[2], 16)));
+        }
+        return baseline;
+    }
+
+    private static void writeBaseline(File file, Map<String, Result> results) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# workload cycles screen-hash, written by bench.CycleBenchmark --update");
+        for (Map.Entry<String, Result> e : results.entrySet()) {
+            lines.add(String.format("%s %d %08x", e.getKey(), e.getValue().cycles, e.getValue().screenHash));
+        }
+        Files.write(file.toPath(), lines);
+    }
+}
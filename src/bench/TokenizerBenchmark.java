@@ -0,0 +1,84 @@
+package bench;
+
+import VMTranslator.vmcode.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares VM tokenizing throughput of the old split/regex front end against VMTokenizer.
+ * Usage: java bench.TokenizerBenchmark [corpus directory...]   (defaults to HACK_OS)
+ */
+public class TokenizerBenchmark {
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 50;
+
+    public static void main(String[] args) throws Exception {
+        String[] dirs = args.length == 0 ? new String[]{"HACK_OS"} : args;
+
+        for (String dir : dirs) {
+            File[] vmFiles = new File(dir).listFiles((d, n) -> n.endsWith(".vm"));
+            if (vmFiles == null || vmFiles.length == 0) {
+                System.err.println("No .vm files found in " + dir);
+                continue;
+            }
+
+            List<String> sources = new ArrayList<>();
+            int lineCount = 0;
+            for (File vmFile : vmFiles) {
+                String source = Files.readString(vmFile.toPath());
+                sources.add(source);
+                lineCount += (int) source.lines().count();
+            }
+
+            double before = linesPerSecond(sources, lineCount, true);
+            double after = linesPerSecond(sources, lineCount, false);
+            System.out.printf("%s (%d lines): split/regex %.0f lines/s, VMTokenizer %.0f lines/s (%.2fx)%n", dir, lineCount, before, after, after / before);
+        }
+    }
+
+    private static double linesPerSecond(List<String> sources, int lineCount, boolean legacy) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) sink += tokenizeAll(sources, legacy);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) sink += tokenizeAll(sources, legacy);
+        long elapsed = System.nanoTime() - start;
+
+        if (sink == 42) System.out.print("");
+        return (double) lineCount * MEASURED_ROUNDS / (elapsed / 1e9);
+    }
+
+    private static int tokenizeAll(List<String> sources, boolean legacy) {
+        int instructions = 0;
+        for (String source : sources) {
+            instructions += legacy ? legacyTokenize(source).size() : new VMTokenizer(source).tokenize().size();
+        }
+        return instructions;
+    }
+
+    // The front end VMParser used before VMTokenizer: split off comments, split on whitespace, parseInt
+    private static List<VMinstruction> legacyTokenize(String source) {
+        List<VMinstruction> flat = new ArrayList<>();
+        for (String line : source.split("\n")) {
+            String noComment = line.split("//", 2)[0].trim();
+            if (noComment.isEmpty()) continue;
+
+            String[] tokens = noComment.split("\\s+");
+            flat.add(switch (tokens[0]) {
+                case "push" -> new PushInstruction(Address.of(tokens[1], (short) Integer.parseInt(tokens[2])));
+                case "pop" -> new PopInstruction(Address.of(tokens[1], (short) Integer.parseInt(tokens[2])));
+                case "label" -> new LabelInstruction(tokens[1]);
+                case "goto" -> new GotoInstruction(tokens[1]);
+                case "if-goto" -> new IfGotoInstruction(tokens[1]);
+                case "function" -> new FunctionInstruction(tokens[1], Integer.parseInt(tokens[2]));
+                case "call" -> new CallInstruction(tokens[1], Integer.parseInt(tokens[2]));
+                case "return" -> new ReturnInstruction(null);
+                default -> new ArithmeticInstruction(ArithmeticInstruction.Op.valueOf(tokens[0].toUpperCase()));
+            });
+        }
+        return flat;
+    }
+}